@@ -0,0 +1,195 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class ByteChannelTransport extends Transport {
+
+	// queued beyond this the writers that can wait do, until the event loop has sent enough of it
+	static final int MAX_UNSENT = 1<<18;
+	// the loop itself never waits, a peer that leaves this much of its answers unread is treated as gone
+	static final int MAX_UNSENT_LOOP = 4*MAX_UNSENT;
+	
+	private final ByteChannel channel;
+	private final boolean directBuffers;
+	
+	// only opened once a non-blocking write has to wait, writes are never concurrent so neither is this
+	private Selector writeSelector;
+	
+	// set once a MultiplexerEventLoopGroup drives the channel, from then on no write waits for the socket
+	// what the kernel does not take right away is queued in order and sent by the loop when the socket is writable
+	private volatile SelectionKey key;
+	private Thread loop;
+	private final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<ByteBuffer>();
+	private long unsentBytes = 0;
+	private IOException failure;
+	// never held while waiting for anything but room, so the loop can always take it to send
+	private final ReentrantLock unsentLock = new ReentrantLock();
+	private final Condition room = unsentLock.newCondition();
+	
+	ByteChannelTransport(ByteChannel channel, boolean directBuffers) {
+		if (channel==null) throw new NullPointerException();
+		this.channel = channel;
+		this.directBuffers = directBuffers;
+	}
+	
+	@Override
+	int read(ByteBuffer dst) throws IOException {
+		return channel.read(dst);
+	}
+	
+	@Override
+	void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		if (key!=null) {
+			queue(srcs, offset, length);
+			return;
+		}
+		if (channel instanceof GatheringByteChannel) {
+			// the whole frame (or batch of frames) is handed to the kernel at once
+			GatheringByteChannel gather = (GatheringByteChannel) channel;
+			while (length>0) {
+				if (gather.write(srcs, offset, length)==0) awaitWritable();
+				while (length>0&&!srcs[offset].hasRemaining()) {
+					offset++;
+					length--;
+				}
+			}
+		} else {
+			for (int i=offset; i<offset+length; i++) {
+				while (srcs[i].hasRemaining()) {
+					if (channel.write(srcs[i])==0) awaitWritable();
+				}
+			}
+		}
+	}
+	
+	// on the loop's thread, after the channel is registered with its selector
+	void attach(SelectionKey key) {
+		loop = Thread.currentThread();
+		this.key = key;
+	}
+	
+	private void queue(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		unsentLock.lock();
+		try {
+			if (failure!=null) throw new IOException("ByteChannelTransport failed", failure);
+			if (!key.isValid()) throw new IOException("ByteChannelTransport Closed");
+			if (unsent.isEmpty()) {
+				// as much as the kernel takes right away, frames queued before must go first
+				GatheringByteChannel gather = (GatheringByteChannel) channel;
+				try {
+					while (length>0&&gather.write(srcs, offset, length)>0) {
+						while (length>0&&!srcs[offset].hasRemaining()) {
+							offset++;
+							length--;
+						}
+					}
+				} catch (IOException ioe) {
+					fail(ioe);
+					throw ioe;
+				}
+			}
+			if (length==0) return;
+			if (Thread.currentThread()==loop&&unsentBytes>MAX_UNSENT_LOOP) {
+				IOException ioe = new IOException("peer stopped reading");
+				fail(ioe);
+				throw ioe;
+			}
+			
+			// the caller's buffers may be reused as soon as this returns
+			for (int i=offset; i<offset+length; i++) {
+				if (!srcs[i].hasRemaining()) continue;
+				ByteBuffer copy = allocate(srcs[i].remaining());
+				copy.put(srcs[i]).flip();
+				unsent.add(copy);
+				unsentBytes += copy.remaining();
+			}
+			key.interestOps(key.interestOps()|SelectionKey.OP_WRITE);
+			if (Thread.currentThread()!=loop) key.selector().wakeup();
+		} finally {
+			unsentLock.unlock();
+		}
+	}
+	
+	// on the loop's thread when the socket is writable again
+	void flush() throws IOException {
+		unsentLock.lock();
+		try {
+			while (!unsent.isEmpty()) {
+				ByteBuffer head = unsent.peek();
+				unsentBytes -= channel.write(head);
+				if (head.hasRemaining()) break;
+				unsent.poll();
+			}
+			if (unsent.isEmpty()) key.interestOps(key.interestOps()&~SelectionKey.OP_WRITE);
+			if (unsentBytes<=MAX_UNSENT) room.signalAll();
+		} catch (IOException ioe) {
+			fail(ioe);
+			throw ioe;
+		} finally {
+			unsentLock.unlock();
+		}
+	}
+	
+	@Override
+	void awaitRoom() throws IOException {
+		if (key==null||Thread.currentThread()==loop) return;
+		unsentLock.lock();
+		try {
+			while (unsentBytes>MAX_UNSENT&&failure==null) room.awaitUninterruptibly();
+			if (failure!=null) throw new IOException("ByteChannelTransport failed", failure);
+		} finally {
+			unsentLock.unlock();
+		}
+	}
+	
+	private void fail(IOException cause) {
+		unsentLock.lock();
+		try {
+			if (failure==null) failure = cause;
+			unsent.clear();
+			unsentBytes = 0;
+			room.signalAll();
+		} finally {
+			unsentLock.unlock();
+		}
+	}
+	
+	// a non-blocking channel that is not driven by its loop yet still has to look blocking to the writers
+	private void awaitWritable() throws IOException {
+		if (!(channel instanceof SelectableChannel)) return;
+		SelectableChannel selectable = (SelectableChannel) channel;
+		if (selectable.isBlocking()) return;
+		
+		if (writeSelector==null) {
+			writeSelector = Selector.open();
+			selectable.register(writeSelector, SelectionKey.OP_WRITE);
+		}
+		writeSelector.select();
+		writeSelector.selectedKeys().clear();
+	}
+	
+	@Override
+	ByteBuffer allocate(int capacity) {
+		return directBuffers?ByteBuffer.allocateDirect(capacity):ByteBuffer.allocate(capacity);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		fail(new IOException("ByteChannelTransport Closed"));
+		try {
+			if (writeSelector!=null) writeSelector.close();
+		} finally {
+			channel.close();
+		}
+	}
+	
+}
@@ -2,18 +2,35 @@ package com.github.ezekielnewren.net.multiplexer;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 abstract class Channel implements Closeable {
 
 	
 	final Multiplexer home;
-	final Object mutex;
+	final ReentrantLock mutex;
 	private final int channel;
+	// what the channel was connected to or accepted from, -1 if it is a channel of its own
+	private final int service;
 	private final int recvBufferSize;
 	private final int sendBufferSize;
-	private final Multiplexer.ChannelMetadata cmMeta;
+	final Multiplexer.ChannelMetadata cmMeta;
 	
-	final ByteArrayCircularBuffer window;
+	final CircularBuffer window;
+	private final ChannelMetrics metrics = new ChannelMetrics(this);
+	
+	// frames that have been given credit but are still being put on the wire outside of the mutex
+	private final AtomicInteger sendsInFlight = new AtomicInteger();
+	private volatile boolean closing = false;
+	
+	// one asynchronous read and one asynchronous write at a time, like an AsynchronousSocketChannel
+	final AtomicBoolean reading = new AtomicBoolean();
+	final AtomicBoolean writing = new AtomicBoolean();
 	
 	boolean localInputClosed = false;
 	boolean localOutputClosed = false;
@@ -23,54 +40,90 @@ abstract class Channel implements Closeable {
 	private int read = 0;
 	private int credit;
 	
+	// credit returns, see CreditPolicy
+	private boolean returnScheduled = false;
+	private long lastReturn = System.nanoTime();
+	private long readRate = 0;
+	
+	// see FrameScheduler, only the writer thread of a FlushPolicy honors it
+	private volatile int priority = 0;
+	private volatile int weight = 1;
 	
-	Channel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final Object mutex) {
+	// receive window autotuning, recvBufferSize is then only the largest the window may grow to
+	private final boolean autoTune;
+	// what the peer has been allowed to have outstanding, and what it still has to give back after the window shrank
+	private int windowSize;
+	private int debt = 0;
+	private long tuneRead = 0;
+	private long tuneStart = System.nanoTime();
+	
+	
+	Channel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final ReentrantLock mutex, boolean autoTune) {
 		this.home = inst;
 		this.channel = channel;
 		this.mutex = mutex;
 		this.recvBufferSize = recvBufferSize;
 		this.sendBufferSize = sendBufferSize;
-		window = new ByteArrayCircularBuffer(recvBufferSize);
+		this.autoTune = autoTune;
+		windowSize = Multiplexer.initialWindow(recvBufferSize, autoTune);
+		window = home.newWindow(windowSize);
 		state = Multiplexer.STATE_ESTABLISHED;
 		cmMeta = home.getCM(channel);
+		service = cmMeta.service;
 		depositCredit(sendBufferSize);
 	}
 
 	// private helper methods
 	private int clearRead() {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		int x = read;
 		read = 0;
+		if (x>0&&home.creditPolicy.isAdaptive()) {
+			// moving average of how fast the application reads, sampled at every return
+			long now = System.nanoTime();
+			long sample = x*1000000000L/Math.max(1, now-lastReturn);
+			readRate = readRate==0?sample:(readRate*7+sample)/8;
+			lastReturn = now;
+		}
+		if (debt>0) {
+			// the window shrank, read bytes are kept until the peer has that much less outstanding
+			int kept = Math.min(debt, x);
+			debt -= kept;
+			x -= kept;
+		}
 		return x;
 	}
 	
 	private void withdrawCredit(int amount) {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		credit -= amount;
 	}
 
 	// demultiplexer shared methods
 	void depositCredit(int amount) {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		credit += amount;
+		if (amount>0) cmMeta.writable.signalAll();
 	}
 	
-	void feed(byte[] b, int off, int len) throws IOException {
-		if (len==0) return;
+	void feed(ByteBuffer src) throws IOException {
+		if (!src.hasRemaining()) return;
 
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		try {
-			window.write(b, off, len);
+			// a shrunken window may still receive what the peer was allowed before it shrank
+			if (autoTune&&src.remaining()>window.free()) window.resize(windowSize+debt);
+			window.write(src);
 		} finally {
-			mutex.notifyAll();
+			cmMeta.readable.signalAll();
 		}
 	}
 	
 	void dealWithFarsideInputClosing() {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		try {
 			close();
 		} catch (IOException e) {
@@ -79,14 +132,14 @@ abstract class Channel implements Closeable {
 	}
 
 	void dealWithFarsideOutputClosing() {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		remoteOutputClosed = true;
 		window.closeOutput();
 	}
 	
 	void dealWithFarsideClosing() {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		try {
 			close();
@@ -97,39 +150,228 @@ abstract class Channel implements Closeable {
 	
 	// subclasses of Channel helpher methods
 	void writePacketWithOneByte(int b) throws IOException {
-		assert(Thread.holdsLock(mutex));
+		int returned;
+		mutex.lock();
+		try {
+			reserve(1, 1);
+			returned = clearRead();
+		} finally {
+			mutex.unlock();
+		}
+		try {
+			home.writePacketWithOneByte(channel, returned, b);
+		} finally {
+			release();
+		}
+		metrics.sent(1);
+	}
+	
+	// sends between 1 (or all of len if whole is set) and len bytes as soon as there is credit for them
+	int writePacket(byte[] b, int off, int len, boolean whole) throws IOException {
+		int write, returned;
+		mutex.lock();
+		try {
+			write = reserve(whole?len:1, len);
+			returned = clearRead();
+		} finally {
+			mutex.unlock();
+		}
+		try {
+			home.writePacket(channel, returned, b, off, write, Multiplexer.FLAG_NULL);
+		} finally {
+			release();
+		}
+		metrics.sent(write);
+		return write;
+	}
+	
+	// sends all of len right away if there is credit for it, otherwise sends nothing and returns false
+	boolean tryWritePacket(byte[] b, int off, int len) throws IOException {
+		int returned;
+		mutex.lock();
+		try {
+			if (tryReserve(len, len)<0) return false;
+			returned = clearRead();
+		} finally {
+			mutex.unlock();
+		}
+		try {
+			home.writePacket(channel, returned, b, off, len, Multiplexer.FLAG_NULL);
+		} finally {
+			release();
+		}
+		metrics.sent(len);
+		return true;
+	}
+	
+	// credit is withdrawn under the mutex but the frame itself is written after the mutex is released
+	private int reserve(int min, int max) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
 		
-		home.writePacketWithOneByte(channel, clearRead(), b);
-		withdrawCredit(1);
+		int write;
+		if (Math.min(getCredit(), max)<min) {
+			// about to block anyway, counting it here costs nothing
+			metrics.creditStarvedWrites.increment();
+			home.metrics.creditStarvedWrites.increment();
+		}
+		while ((write=tryReserve(min, max))<0) home.linger(cmMeta.writable);
+		return write;
 	}
 	
-	void writePacket(byte[] b, int off, int len) throws IOException {
-		assert(Thread.holdsLock(mutex));
-		assert(len<=getCredit())
-			:"well this is a problem";
+	// -1 instead of waiting when there is not enough credit yet
+	private int tryReserve(int min, int max) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
 		
-		home.writePacket(channel, clearRead(), b, off, len, Multiplexer.FLAG_NULL);
-		withdrawCredit(len);
+		if (localOutputClosed) throw new IOException("Channel Closed");
+		int write = Math.min(getCredit(), max);
+		if (write<min) return -1;
+		withdrawCredit(write);
+		sendsInFlight.incrementAndGet();
+		return write;
+	}
+	
+	// the caller has set writing, len bytes go out a frame at a time (or as one if whole is set) whenever there is credit for them
+	CompletableFuture<Void> writePacketAsync(byte[] b, int off, int len, boolean whole) {
+		return writePacketAsync(b, off, len, whole, null);
+	}
+	
+	// settled runs once the write has sent everything, failed or was cancelled, possibly under the mutex
+	CompletableFuture<Void> writePacketAsync(final byte[] b, final int off, final int len, final boolean whole, final Runnable settled) {
+		return submit(new PendingOperation<Void>(writing) {
+			int sent = 0;
+			int write = -1;
+			int returned;
+			
+			boolean attempt() throws IOException {
+				write = whole?tryReserve(len, len):tryReserve(1, Math.min(home.getFrameSize(getPriority()), len-sent));
+				if (write<0) return false;
+				returned = clearRead();
+				return true;
+			}
+			
+			boolean finish() throws IOException {
+				try {
+					home.writePacket(channel, returned, b, off+sent, write, Multiplexer.FLAG_NULL);
+				} finally {
+					release();
+				}
+				metrics.sent(write);
+				sent += write;
+				return sent>=len||!home.resubmit(cmMeta, this);
+			}
+			
+			void settle() {
+				// before writing is cleared, so the next asynchronous write finds the stream free
+				if (settled!=null) settled.run();
+				super.settle();
+			}
+		});
+	}
+	
+	<T> CompletableFuture<T> submit(PendingOperation<T> op) {
+		mutex.lock();
+		try {
+			return home.submit(cmMeta, op, 0);
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	private void release() {
+		if (sendsInFlight.decrementAndGet()==0 && closing) {
+			mutex.lock();
+			try {
+				cmMeta.progressed.signalAll();
+			} finally {
+				mutex.unlock();
+			}
+		}
 	}
 	
 	void flushRead() throws IOException {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
-		if (read>=window.getBufferSize()/2) {
+		if (autoTune) tuneWindow(true);
+		
+		CreditPolicy policy = home.creditPolicy;
+		if (read>=policy.threshold(windowSize, readRate)) {
 			home.writePacket(channel, clearRead(), Multiplexer.FLAG_NULL);
+		} else if (read>0&&policy.getDelayMicros()>0&&!returnScheduled) {
+			// outgoing data may pick the credit up before then
+			returnScheduled = true;
+			final Runnable delayed = new Runnable() {
+				public void run() {
+					returnDelayedCredit();
+				}
+			};
+			// the scheduler thread is shared by every Multiplexer, the frame is written from the completion executor
+			Multiplexer.getScheduler().schedule(new Runnable() {
+				public void run() {
+					home.getCompletionExecutor().execute(delayed);
+				}
+			}, policy.getDelayMicros(), TimeUnit.MICROSECONDS);
+		}
+	}
+	
+	private void returnDelayedCredit() {
+		int returned;
+		mutex.lock();
+		try {
+			returnScheduled = false;
+			if (state!=Multiplexer.STATE_ESTABLISHED||read==0) return;
+			returned = clearRead();
+		} finally {
+			mutex.unlock();
+		}
+		// written without holding the mutex, the Demultiplexer may need it meanwhile
+		try {
+			home.writePacket(channel, returned, Multiplexer.FLAG_NULL);
+		} catch (IOException ioe) {
+			// writePacket has already closed the Multiplexer
+		}
+	}
+	
+	// like TCP receive buffer autotuning, the window should hold twice what the application reads in one round trip
+	void tuneWindow(boolean mayGrow) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		
+		long rtt = home.getRttNanos();
+		long now = System.nanoTime();
+		if (rtt==0||now-tuneStart<rtt) return;
+		long target = 2*tuneRead*rtt/(now-tuneStart);
+		tuneRead = 0;
+		tuneStart = now;
+		
+		if (mayGrow&&target>windowSize&&windowSize<recvBufferSize) {
+			int grown = (int) Math.min(recvBufferSize, Long.highestOneBit(target-1)<<1);
+			int extra = grown-windowSize;
+			windowSize = grown;
+			// growing pays off a pending shrink before it hands out new credit
+			int forgiven = Math.min(debt, extra);
+			debt -= forgiven;
+			extra -= forgiven;
+			window.resize(windowSize+debt);
+			if (extra>0) home.writePacket(channel, extra, Multiplexer.FLAG_NULL);
+		} else if (target<windowSize/4) {
+			int shrunk = Math.max(Multiplexer.initialWindow(recvBufferSize, true), windowSize/2);
+			if (shrunk>=windowSize) return;
+			debt += windowSize-shrunk;
+			windowSize = shrunk;
+			window.resize(Math.max(windowSize, window.available()));
 		}
 	}
 	
 	int getCredit() {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		return credit;
 	}
 	
 	void incRead(int amount) {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		
 		read += amount;
+		tuneRead += amount;
 	}
 
 	long getState() {
@@ -137,7 +379,7 @@ abstract class Channel implements Closeable {
 	}
 	
 	void setState(long newState) {
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		if (state==Multiplexer.STATE_CHANNEL_CLOSED) return;
 
 		cmMeta.state = newState;
@@ -145,11 +387,15 @@ abstract class Channel implements Closeable {
 	}
 
 	void closeQuietly() {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			localInputClosed = true;
 			localOutputClosed = true;
 			remoteOutputClosed = true;
+			window.closeOutput();
 			setState(Multiplexer.STATE_CHANNEL_CLOSED);
+		} finally {
+			mutex.unlock();
 		}
 	}
 
@@ -162,15 +408,25 @@ abstract class Channel implements Closeable {
 		return channel;
 	}
 	
+	public int getServiceID() {
+		return service;
+	}
+	
 	public boolean isConnectionClosed() {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			return localOutputClosed&&remoteOutputClosed;
+		} finally {
+			mutex.unlock();
 		}
 	}
 	
 	public boolean isClosed() {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			return localInputClosed&&localOutputClosed&&remoteOutputClosed;
+		} finally {
+			mutex.unlock();
 		}
 	}
 	
@@ -182,6 +438,36 @@ abstract class Channel implements Closeable {
 		return recvBufferSize;
 	}
 	
+	public ChannelMetrics getMetrics() {
+		return metrics;
+	}
+	
+	// the receive window as autotuned, otherwise always getReceiveBufferSize()
+	public int getWindowSize() {
+		mutex.lock();
+		try {
+			return windowSize;
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// frames of a higher priority channel always go first, channels of equal priority share the wire in proportion to their weight
+	// only a Multiplexer with a FlushPolicy has a writer thread to reorder frames, without one this throws IllegalStateException
+	public void setPriority(int priority, int weight) {
+		home.setPriority(channel, priority, weight);
+		this.priority = priority;
+		this.weight = weight;
+	}
+	
+	public int getPriority() {
+		return priority;
+	}
+	
+	public int getWeight() {
+		return weight;
+	}
+	
 	public void closeInput() throws IOException {
 		window.closeInput();
 		close();
@@ -193,27 +479,35 @@ abstract class Channel implements Closeable {
 	
 	@Override
 	public void close() throws IOException {
-		synchronized(mutex) {
-			try {
-				while (state==Multiplexer.STATE_CHANNEL_IN_CLOSING_METHOD) home.linger();
-				
-				if (isClosed()) return;
-				setState(Multiplexer.STATE_CHANNEL_IN_CLOSING_METHOD);
-				
-				localInputClosed = true;
-				localOutputClosed = true;
-				
-				home.writePacket(channel, clearRead(), Multiplexer.FLAG_IOCL);
-				while (!cmMeta.nextPacketRead.compareAndSet(true, false)) home.linger();
-				
-				remoteOutputClosed = true;
-				
-				window.closeOutput();
-				
-				setState(Multiplexer.STATE_CHANNEL_CLOSED);
-			} finally {
-				mutex.notifyAll();
-			}
+		mutex.lock();
+		try {
+			while (state==Multiplexer.STATE_CHANNEL_IN_CLOSING_METHOD) home.linger(cmMeta.progressed);
+			
+			if (isClosed()) return;
+			setState(Multiplexer.STATE_CHANNEL_IN_CLOSING_METHOD);
+			
+			localInputClosed = true;
+			localOutputClosed = true;
+			
+			// frames already given credit must reach the wire before the close does
+			closing = true;
+			while (sendsInFlight.get()>0) home.linger(cmMeta.progressed);
+			
+			home.writePacket(channel, clearRead(), Multiplexer.FLAG_IOCL);
+			
+			// answered by the peer's own IOCL, or by a reset
+			while (!cmMeta.nextPacketRead.compareAndSet(true, false)&&!cmMeta.reset) home.linger(cmMeta.progressed);
+			
+			remoteOutputClosed = true;
+			
+			// what was received is still delivered, the window goes back to the pool once that is read
+			window.closeOutput();
+			
+			setState(Multiplexer.STATE_CHANNEL_CLOSED);
+			home.release(channel);
+		} finally {
+			cmMeta.wakeAll();
+			mutex.unlock();
 		}
 	}
 	
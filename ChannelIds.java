@@ -0,0 +1,52 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.util.BitSet;
+
+// the ephemeral range of channel ids, oldest free first so an id is used again as late as possible after its last connection
+class ChannelIds {
+
+	private final int first;
+	private final int last;
+	// ids from here to last have never been handed out
+	private int fresh;
+	// ids given back, in the order they were
+	private int[] ring = new int[16];
+	private int head = 0;
+	private int size = 0;
+	private final BitSet queued = new BitSet();
+
+	ChannelIds(int first, int last) {
+		this.first = first;
+		this.last = last;
+		this.fresh = first;
+	}
+
+	// -1 once every id in the range has been handed out and none given back, the caller skips those it finds bound
+	// never used ids first, the peer may not have unbound one that was just given back by the time a SYN reuses it
+	int poll() {
+		if (fresh<=last) return fresh++;
+		if (size>0) {
+			int id = ring[head];
+			head = (head+1)&(ring.length-1);
+			size--;
+			queued.clear(id-first);
+			return id;
+		}
+		return -1;
+	}
+
+	// every channel that is unbound, those outside the range or never handed out are ignored
+	void release(int id) {
+		if (id<first||id>=fresh||queued.get(id-first)) return;
+		if (size==ring.length) {
+			int[] larger = new int[ring.length<<1];
+			for (int i=0; i<size; i++) larger[i] = ring[(head+i)&(ring.length-1)];
+			ring = larger;
+			head = 0;
+		}
+		ring[(head+size)&(ring.length-1)] = id;
+		size++;
+		queued.set(id-first);
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+public interface ChannelMXBean {
+
+	int getChannelID();
+
+	// frames and payload bytes of this channel
+	long getFramesSent();
+
+	long getBytesSent();
+
+	long getFramesReceived();
+
+	long getBytesReceived();
+
+	long getCreditStarvedWrites();
+
+	int getWindowSize();
+
+	// bytes received but not read yet
+	int getWindowOccupancy();
+
+}
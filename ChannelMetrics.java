@@ -0,0 +1,83 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters are only touched outside the mutex, the window gauges are read when asked for
+public class ChannelMetrics implements ChannelMXBean {
+
+	private final Channel ptr;
+
+	final LongAdder framesSent = new LongAdder();
+	final LongAdder bytesSent = new LongAdder();
+	final LongAdder framesReceived = new LongAdder();
+	final LongAdder bytesReceived = new LongAdder();
+	final LongAdder creditStarvedWrites = new LongAdder();
+
+	ChannelMetrics(Channel ptr) {
+		this.ptr = ptr;
+	}
+
+	void sent(int bytes) {
+		framesSent.increment();
+		bytesSent.add(bytes);
+	}
+
+	void received(int bytes) {
+		framesReceived.increment();
+		bytesReceived.add(bytes);
+	}
+
+	public int getChannelID() {
+		return ptr.getChannelID();
+	}
+
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getFramesReceived() {
+		return framesReceived.sum();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	public long getCreditStarvedWrites() {
+		return creditStarvedWrites.sum();
+	}
+
+	public int getWindowSize() {
+		return ptr.getWindowSize();
+	}
+
+	public int getWindowOccupancy() {
+		try {
+			return ptr.window.available();
+		} catch (IOException ioe) {
+			// the input side is closed, nothing will be read from it again
+			return 0;
+		}
+	}
+
+	// every value at once, keyed by the getter's name without "get"
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		snapshot.put("FramesSent", getFramesSent());
+		snapshot.put("BytesSent", getBytesSent());
+		snapshot.put("FramesReceived", getFramesReceived());
+		snapshot.put("BytesReceived", getBytesReceived());
+		snapshot.put("CreditStarvedWrites", getCreditStarvedWrites());
+		snapshot.put("WindowSize", (long) getWindowSize());
+		snapshot.put("WindowOccupancy", (long) getWindowOccupancy());
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,476 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// the ring of a channel's window, subclasses only decide where its bytes are kept
+public abstract class CircularBuffer {
+
+	// constants
+	private final CircularBuffer inst;
+	final int FIRST_INDEX;
+	int lastIndex;
+	// what may be buffered, a pooled ring's storage is only as large as the size class of what it holds
+	private int capacity;
+	private final boolean pooled;
+
+	// streams
+	private final InputStream is;
+	private final OutputStream os;
+
+	// locks, not monitors, so a virtual thread waiting for room or data unmounts from its carrier
+	private final ReentrantLock readLock = new ReentrantLock();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final ReentrantLock fieldLock = new ReentrantLock();
+	private final Condition fieldChanged = fieldLock.newCondition();
+
+	// data
+	int rp;
+	int wp;
+	int readable = 0;
+
+	// flags
+	private boolean inputClosed = false;
+	private boolean outputClosed = false;
+	private boolean recycled = false;
+
+	CircularBuffer(int firstIndex, int lastIndex) {
+		this(firstIndex, lastIndex, lastIndex-firstIndex+1, false);
+	}
+
+	// a pooled ring starts below its capacity and grows by size class as data accumulates
+	CircularBuffer(int firstIndex, int lastIndex, int capacity, boolean pooled) {
+		if (lastIndex-firstIndex+1<1||capacity<1) throw new IllegalArgumentException("buffer size must be at least 1");
+		FIRST_INDEX = firstIndex;
+		this.lastIndex = lastIndex;
+		this.capacity = capacity;
+		this.pooled = pooled;
+		rp = wp = FIRST_INDEX;
+		is = new CircularBufferInputStream();
+		os = new CircularBufferOutputStream();
+		inst = this;
+	}
+
+	// TODO storage, only ever called with the field lock held and never across the end of the ring
+	abstract int get(int index);
+
+	abstract void put(int index, int b);
+
+	abstract void get(int index, byte[] b, int off, int len);
+
+	abstract void put(int index, byte[] b, int off, int len);
+
+	abstract void put(int index, ByteBuffer src, int len);
+
+	// new storage of newSize starting with the readable bytes at rp
+	abstract void reallocate(int newSize);
+
+	// false if the storage is not the buffer's own to replace
+	boolean isResizable() {
+		return true;
+	}
+
+	// hands the storage back to its pool, called once nothing can read or write it anymore
+	void release() {
+	}
+
+	// TODO internal modifiers
+	private void incReadable(int amount) {
+		assert(fieldLock.isHeldByCurrentThread());
+		wp = FIRST_INDEX+(((wp-FIRST_INDEX)+amount)%storageSize());
+		readable += amount;
+		fieldChanged.signalAll();
+	}
+
+	private void decReadable(int amount) {
+		assert(fieldLock.isHeldByCurrentThread());
+		rp =  FIRST_INDEX+(((rp-FIRST_INDEX)+amount)%storageSize());
+		readable -= amount;
+		fieldChanged.signalAll();
+		recycle();
+	}
+
+	private int available0() throws IOException {
+		assert(fieldLock.isHeldByCurrentThread());
+		return readable;
+	}
+
+	private int free0() throws IOException {
+		assert(fieldLock.isHeldByCurrentThread());
+		return capacity-readable;
+	}
+
+	private int storageSize() {
+		return lastIndex-FIRST_INDEX+1;
+	}
+
+	// moves what is buffered to the start of new storage
+	private void relocate(int newSize) {
+		assert(fieldLock.isHeldByCurrentThread());
+		reallocate(newSize);
+		lastIndex = FIRST_INDEX+newSize-1;
+		rp = FIRST_INDEX;
+		wp = FIRST_INDEX+readable%newSize;
+	}
+
+	// a pooled ring takes the next size class that fits before a write would run out of storage
+	private void grow(int write) {
+		if (pooled&&readable+write>storageSize()) relocate(WindowPool.sizeClass(readable+write));
+	}
+
+	// once closed and drained no one touches the storage again, so a pooled ring gives it back
+	private void recycle() {
+		assert(fieldLock.isHeldByCurrentThread());
+		if (pooled&&!recycled&&(inputClosed||outputClosed&&readable==0)) {
+			recycled = true;
+			release();
+		}
+	}
+
+	// TODO public informing methods
+	public int getBufferSize() {
+		return capacity;
+	}
+
+	public int available() throws IOException {
+		if (inputClosed) throw new IOException("InputStream Closed");
+		fieldLock.lock();
+		try {
+			return available0();
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+	public int free() throws IOException {
+		if (outputClosed) throw new IOException("OutputStream Closed");
+		fieldLock.lock();
+		try {
+			return free0();
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+	// moves what is buffered into new storage of newSize, only a buffer that owns its storage can do this
+	public void resize(int newSize) {
+		if (!isResizable()) throw new IllegalStateException("a shared buffer cannot be resized");
+		if (newSize<1) throw new IllegalArgumentException("buffer size must be at least 1");
+		fieldLock.lock();
+		try {
+			if (newSize<readable) throw new IllegalArgumentException("newSize is smaller than what is buffered");
+			if (newSize==capacity) return;
+
+			capacity = newSize;
+			// a pooled ring grows as it is written, here it only gives back storage the new capacity cannot use
+			if (!pooled) relocate(newSize);
+			else if (!recycled&&storageSize()>WindowPool.sizeClass(newSize)) {
+				relocate(WindowPool.sizeClass(Math.max(readable, Math.min(newSize, WindowPool.INITIAL_SIZE))));
+			}
+			fieldChanged.signalAll();
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+	public long skip(long skip) throws IOException {
+		if (inputClosed) throw new IOException("InputStream Closed");
+		fieldLock.lock();
+		try {
+			if (skip<0) throw new IllegalArgumentException();
+			int amount = (int) Math.min(skip, readable);
+			decReadable(amount);
+			return amount;
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+
+	// TODO read methods
+	public int read() throws IOException {
+		readLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				while (available0() == 0 && !inputClosed && !outputClosed) {
+					try{fieldChanged.await();}catch(InterruptedException ie){Thread.currentThread().interrupt();}
+				}
+				if (inputClosed) throw new IOException("InputStream Closed");
+				// what was written before the output closed is still read
+				if (available0()==0) return -1;
+
+				int read = get(rp);
+				decReadable(1);
+				return read;
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	private int read0(byte[] b, int off, int len) throws IOException {
+		assert(fieldLock.isHeldByCurrentThread());
+
+		int read;
+		while ((read=Math.min(available0(), len)) == 0 && !inputClosed && !outputClosed) {
+			try{fieldChanged.await();}catch(InterruptedException ie){Thread.currentThread().interrupt();}
+		}
+		if (inputClosed) throw new IOException("InputStream Closed");
+		if (read==0) return -1;
+
+		int remaining = lastIndex-rp+1;
+		if (read <= remaining) {
+			get(rp, b, off, read);
+		} else {
+			get(rp, b, off, remaining);
+			get(FIRST_INDEX, b, off+remaining, read-remaining);
+		}
+		decReadable(read);
+		return read;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (b == null) {
+			throw new NullPointerException();
+		} else if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		} else if (len == 0) {
+			return 0;
+		}
+
+		readLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				return read0(b, off, len);
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		if (b == null) {
+			throw new NullPointerException();
+		} else if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		} else if (len == 0) {
+			return;
+		}
+
+		readLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				int total = 0;
+				while (total < len) {
+					int read = read0(b, off+total, len-total);
+					if (read<0) throw new EOFException();
+					total += read;
+				}
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	// TODO write methods
+	public void write(int b) throws IOException {
+		writeLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				while (free0() == 0 && !inputClosed && !outputClosed) {
+					try{fieldChanged.await();}catch(InterruptedException ie){Thread.currentThread().interrupt();}
+				}
+				if (inputClosed) closeOutput();
+				if (outputClosed) throw new IOException("OutputStream Closed");
+
+				grow(1);
+				put(wp, b);
+				incReadable(1);
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (b == null) {
+			throw new NullPointerException();
+		} else if ((off < 0) || (off > b.length) || (len < 0) ||
+				((off + len) > b.length) || ((off + len) < 0)) {
+			throw new IndexOutOfBoundsException();
+		} else if (len == 0) {
+			return;
+		}
+
+		writeLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				int written = 0;
+				while (written < len) {
+					int write;
+					while ((write=Math.min(free0(), len-written)) == 0 && !inputClosed && !outputClosed) {
+						try{fieldChanged.await();}catch(InterruptedException ie){Thread.currentThread().interrupt();}
+					}
+					if (inputClosed) closeOutput();
+					if (outputClosed) throw new IOException("OutputStream Closed");
+
+					grow(write);
+					// how many can we touch before we run off
+					int remaining = lastIndex-wp+1;
+					if (write <= remaining) {
+						put(wp, b, off+written, write);
+					} else {
+						put(wp, b, off+written, remaining);
+						put(FIRST_INDEX, b, off+written+remaining, write-remaining);
+					}
+					incReadable(write);
+					written += write;
+				}
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	public void write(ByteBuffer src) throws IOException {
+		if (src == null) {
+			throw new NullPointerException();
+		} else if (!src.hasRemaining()) {
+			return;
+		}
+
+		writeLock.lock();
+		try {
+			fieldLock.lock();
+			try {
+				while (src.hasRemaining()) {
+					int write;
+					while ((write=Math.min(free0(), src.remaining())) == 0 && !inputClosed && !outputClosed) {
+						try{fieldChanged.await();}catch(InterruptedException ie){Thread.currentThread().interrupt();}
+					}
+					if (inputClosed) closeOutput();
+					if (outputClosed) throw new IOException("OutputStream Closed");
+
+					grow(write);
+					// how many can we touch before we run off
+					int remaining = lastIndex-wp+1;
+					if (write <= remaining) {
+						put(wp, src, write);
+					} else {
+						put(wp, src, remaining);
+						put(FIRST_INDEX, src, write-remaining);
+					}
+					incReadable(write);
+				}
+			} finally {
+				fieldLock.unlock();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	// TODO IOStreams
+	public InputStream getInputStream() {
+		return is;
+	}
+
+	public OutputStream getOutputStream() {
+		return os;
+	}
+
+	// TODO IOStreams definitions
+	private class CircularBufferInputStream extends InputStream {
+		public int available() throws IOException {
+			return inst.available();
+		}
+
+		public long skip(long amount) throws IOException {
+			return inst.skip(amount);
+		}
+
+		public int read() throws IOException {
+			return inst.read();
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			return inst.read(b, off, len);
+		}
+
+		public void close() throws IOException {
+			inst.closeInput();
+		}
+	}
+
+	private class CircularBufferOutputStream extends OutputStream {
+		public void write(int b) throws IOException {
+			inst.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			inst.write(b, off, len);
+		}
+
+		public void close() throws IOException {
+			inst.closeOutput();
+		}
+	}
+
+	// TODO close functions
+	public void closeInput() {
+		fieldLock.lock();
+		try {
+			inputClosed = true;
+			fieldChanged.signalAll();
+			recycle();
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+	public void closeOutput() {
+		fieldLock.lock();
+		try {
+			outputClosed = true;
+			fieldChanged.signalAll();
+			recycle();
+		} finally {
+			fieldLock.unlock();
+		}
+	}
+
+	public void close() {
+		closeOutput();
+		closeInput();
+	}
+
+
+}
@@ -1,13 +1,26 @@
 package com.github.ezekielnewren.net.multiplexer;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface ClientMultiplexer extends CoreMultiplexer {
 
 	public DatagramPacketChannel connectDatagramPacketChannel(int channel, int recvBufferSize, long timeout) throws IOException;
 	public DatagramPacketChannel connectDatagramPacketChannel(int channel, int bufferSize) throws IOException;
 	
+	public StreamChannel connectStreamChannel(int channel, int recvBufferSize, long timeout, boolean deflate) throws IOException;
 	public StreamChannel connectStreamChannel(int channel, int recvBufferSize, long timeout) throws IOException;
 	public StreamChannel connectStreamChannel(int channel, int bufferSize) throws IOException;
 	
+	public DatagramPacketChannel connectDatagramPacketChannel(int channel, int service, int recvBufferSize, long timeout) throws IOException;
+	public StreamChannel connectStreamChannel(int channel, int service, int recvBufferSize, long timeout, boolean deflate) throws IOException;
+	
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel, int service, int recvBufferSize, long timeout) throws IOException;
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel, int recvBufferSize, long timeout) throws IOException;
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel, int bufferSize) throws IOException;
+	
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int service, int recvBufferSize, long timeout, boolean deflate) throws IOException;
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int recvBufferSize, long timeout, boolean deflate) throws IOException;
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int bufferSize) throws IOException;
+	
 }
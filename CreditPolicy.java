@@ -0,0 +1,62 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+public class CreditPolicy {
+
+	private final int windowDivisor;
+	private final long delayMicros;
+	private final boolean adaptive;
+
+	private CreditPolicy(int windowDivisor, long delayMicros, boolean adaptive) {
+		if (windowDivisor<1) throw new IllegalArgumentException("windowDivisor must be at least 1");
+		if (delayMicros<0) throw new IllegalArgumentException("delayMicros cannot be negative");
+		if (adaptive&&delayMicros==0) throw new IllegalArgumentException("an adaptive policy needs an interval");
+		this.windowDivisor = windowDivisor;
+		this.delayMicros = delayMicros;
+		this.adaptive = adaptive;
+	}
+
+	// send credit back once half the window has been read, otherwise only along with outgoing data
+	public static CreditPolicy halfWindow() {
+		return new CreditPolicy(2, 0, false);
+	}
+
+	// send credit back after every read
+	public static CreditPolicy immediate() {
+		return new CreditPolicy(Integer.MAX_VALUE, 0, false);
+	}
+
+	// like halfWindow but credit that outgoing data has not picked up within delayMicros is sent back by itself
+	public static CreditPolicy delayed(long delayMicros) {
+		return new CreditPolicy(2, delayMicros, false);
+	}
+
+	// sends credit back about once per intervalMicros of reading at the rate the application has been reading
+	public static CreditPolicy adaptive(long intervalMicros) {
+		return new CreditPolicy(2, intervalMicros, true);
+	}
+
+	public static CreditPolicy adaptive() {
+		return adaptive(1000);
+	}
+
+	// read bytes are returned at the latest once they reach this much of the window
+	int threshold(int windowSize, long bytesPerSecond) {
+		int max = Math.max(1, windowSize/windowDivisor);
+		if (!adaptive||bytesPerSecond==0) return max;
+		return (int) Math.max(1, Math.min(max, bytesPerSecond*delayMicros/1000000));
+	}
+
+	public long getDelayMicros() {
+		return delayMicros;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	@Override
+	public String toString() {
+		return "CreditPolicy[windowDivisor="+windowDivisor+", delayMicros="+delayMicros+", adaptive="+adaptive+"]";
+	}
+
+}
@@ -2,58 +2,138 @@ package com.github.ezekielnewren.net.multiplexer;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DatagramPacketChannel extends Channel {
 
 	final FastQueue packetList = new FastQueue();
 	
-	DatagramPacketChannel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final Object mutex) {
-		super(inst, channel, recvBufferSize, sendBufferSize, mutex);
+	DatagramPacketChannel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final ReentrantLock mutex) {
+		super(inst, channel, recvBufferSize, sendBufferSize, mutex, false);
 	}
 
 	public void receive(DatagramPacket p) throws IOException {
 		if (p.getLength()<getMinRecvLength()) throw new IllegalArgumentException("DatagramPacket length too small");
 		if (localInputClosed) throw new IOException("DatagramPacketChannel Closed");
 		
-		synchronized(mutex) {
-			while(packetList.size()==0) home.linger();
+		mutex.lock();
+		try {
+			while(packetList.size()==0) home.linger(cmMeta.readable);
 			
-			int read = window.read(p.getData(), p.getOffset(), packetList.popInt());
-			p.setLength(read);
-			incRead(read);
+			receiveAvailable(p);
+		} finally {
+			mutex.unlock();
 		}
 	}
 	
+	private void receiveAvailable(DatagramPacket p) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		
+		int read = window.read(p.getData(), p.getOffset(), packetList.popInt());
+		p.setLength(read);
+		incRead(read);
+		flushRead();
+	}
+	
+	// up to max packets each in an array of its own size, empty if none have arrived and null once the peer has closed and all were taken
+	List<DatagramPacket> receiveAvailable(long max) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		
+		if (packetList.size()==0) {
+			if (remoteOutputClosed) return null;
+			if (localInputClosed) throw new IOException("DatagramPacketChannel Closed");
+		}
+		int take = (int) Math.min(packetList.size(), max);
+		List<DatagramPacket> packets = new ArrayList<DatagramPacket>(take);
+		for (int i=0; i<take; i++) {
+			int len = packetList.popInt();
+			byte[] b = new byte[len];
+			window.readFully(b, 0, len);
+			incRead(len);
+			packets.add(new DatagramPacket(b, len));
+		}
+		if (take>0) flushRead();
+		return packets;
+	}
+	
+	// completes with p once a packet has been received into it, p must not be touched until then
+	public CompletableFuture<DatagramPacket> receiveAsync(final DatagramPacket p) {
+		if (p.getLength()<getMinRecvLength()) throw new IllegalArgumentException("DatagramPacket length too small");
+		if (!reading.compareAndSet(false, true)) throw new ReadPendingException();
+		return submit(new PendingOperation<DatagramPacket>(reading) {
+			boolean attempt() throws IOException {
+				if (localInputClosed) throw new IOException("DatagramPacketChannel Closed");
+				if (packetList.size()==0) return false;
+				receiveAvailable(p);
+				result = p;
+				return true;
+			}
+		});
+	}
+	
 	public void send(DatagramPacket p) throws IOException {
 		if (p.getLength()>getMaxSendLength()) throw new IllegalArgumentException("DatagramPacket too large");
 		if (localInputClosed) throw new IOException("DatagramPacketChannel Closed");
 		
-		synchronized(mutex) {
-			if (getCredit()<p.getLength()) home.linger();
-			writePacket(p.getData(), p.getOffset(), p.getLength());
-		}
+		writePacket(p.getData(), p.getOffset(), p.getLength(), true);
+	}
+	
+	// false without waiting if there is no credit for it yet
+	boolean trySend(DatagramPacket p) throws IOException {
+		if (p.getLength()>getMaxSendLength()) throw new IllegalArgumentException("DatagramPacket too large");
+		if (localInputClosed) throw new IOException("DatagramPacketChannel Closed");
+		
+		return tryWritePacket(p.getData(), p.getOffset(), p.getLength());
+	}
+	
+	// completes once the whole packet has been handed to the transport, p must not change until then
+	public CompletableFuture<Void> sendAsync(DatagramPacket p) {
+		if (p.getLength()>getMaxSendLength()) throw new IllegalArgumentException("DatagramPacket too large");
+		if (!writing.compareAndSet(false, true)) throw new WritePendingException();
+		return writePacketAsync(p.getData(), p.getOffset(), p.getLength(), true);
+	}
+	
+	// incoming packets for a single subscriber, each taken out of the window and its credit returned only once it is requested
+	public Flow.Publisher<DatagramPacket> publisher() {
+		return new DatagramPublisher(this);
+	}
+	
+	// sends whatever it is subscribed to, requesting the next packet once there was credit for the one before
+	public Flow.Subscriber<DatagramPacket> subscriber() {
+		return new DatagramSubscriber(this);
 	}
 	
 	public int availablePackets() {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			return packetList.size();
+		} finally {
+			mutex.unlock();
 		}
 	}
 	
 	public int getMinRecvLength() {
-		return Math.min(Multiplexer.MAX_PAYLOAD_SIZE, getReceiveBufferSize());
+		return Math.min(home.getMaxPayloadSize(), getReceiveBufferSize());
 	}
 	
 	public int getMaxSendLength() {
-		return Math.min(Multiplexer.MAX_PAYLOAD_SIZE, getSendBufferSize());
+		return Math.min(home.getMaxPayloadSize(), getSendBufferSize());
 	}
 	
 	@Override
-	void feed(byte[] b, int off, int len) throws IOException {
-		assert(Thread.holdsLock(mutex));
+	void feed(ByteBuffer src) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
 		
-		super.feed(b, off, len);
-		packetList.push(len);
+		int len = src.remaining();
+		super.feed(src);
+		packetList.add(len);
 	}
 	
 }
@@ -0,0 +1,130 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.channels.ReadPendingException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+// demand is the only thing that takes packets out of the window, so a subscriber that stops requesting stops the peer's credit as well
+class DatagramPublisher implements Flow.Publisher<DatagramPacket> {
+
+	private final DatagramPacketChannel channel;
+
+	DatagramPublisher(DatagramPacketChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super DatagramPacket> subscriber) {
+		if (subscriber==null) throw new NullPointerException();
+		Delivery delivery = new Delivery(subscriber);
+		// the subscription holds the channel's one asynchronous read for as long as it lasts
+		if (!channel.reading.compareAndSet(false, true)) {
+			delivery.terminated.set(true);
+			subscriber.onSubscribe(delivery);
+			subscriber.onError(new ReadPendingException());
+			return;
+		}
+		subscriber.onSubscribe(delivery);
+	}
+
+	private class Delivery implements Flow.Subscription, BiConsumer<List<DatagramPacket>, Throwable> {
+
+		final Flow.Subscriber<? super DatagramPacket> subscriber;
+		final AtomicLong demand = new AtomicLong();
+		// a receive is waiting on the channel or its packets are being delivered
+		final AtomicBoolean receiving = new AtomicBoolean();
+		final AtomicBoolean terminated = new AtomicBoolean();
+		private volatile CompletableFuture<List<DatagramPacket>> pending;
+
+		Delivery(Flow.Subscriber<? super DatagramPacket> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n<=0) {
+				if (terminate()) subscriber.onError(new IllegalArgumentException("request must be positive"));
+				return;
+			}
+			long d;
+			do {
+				d = demand.get();
+			} while (!demand.compareAndSet(d, d+n<0?Long.MAX_VALUE:d+n));
+			receive();
+		}
+
+		@Override
+		public void cancel() {
+			if (!terminate()) return;
+			CompletableFuture<List<DatagramPacket>> f = pending;
+			if (f!=null) f.cancel(false);
+		}
+
+		// once only, gives the channel's asynchronous read back
+		private boolean terminate() {
+			if (!terminated.compareAndSet(false, true)) return false;
+			channel.reading.set(false);
+			return true;
+		}
+
+		// at most one receive at a time, whoever finds none running and demand left starts it
+		private void receive() {
+			while (!terminated.get()&&demand.get()>0&&receiving.compareAndSet(false, true)) {
+				CompletableFuture<List<DatagramPacket>> f = channel.submit(new PendingOperation<List<DatagramPacket>>(null) {
+					boolean attempt() throws IOException {
+						// cancelled before its future could be, the packets stay where they are
+						if (terminated.get()) throw new IOException("cancelled");
+						result = channel.receiveAvailable(demand.get());
+						return result==null||!result.isEmpty();
+					}
+				});
+				pending = f;
+				if (!f.isDone()) {
+					f.whenComplete(this);
+					return;
+				}
+				// already there, delivered here instead of one more level down the stack
+				List<DatagramPacket> packets = null;
+				Throwable failure = null;
+				try {
+					packets = f.join();
+				} catch (RuntimeException re) {
+					failure = re;
+				}
+				deliver(packets, failure);
+			}
+		}
+
+		@Override
+		public void accept(List<DatagramPacket> packets, Throwable failure) {
+			deliver(packets, failure);
+			receive();
+		}
+
+		private void deliver(List<DatagramPacket> packets, Throwable failure) {
+			if (terminated.get()) return;
+			if (failure!=null||packets==null) {
+				if (!terminate()) return;
+				if (failure instanceof CompletionException&&failure.getCause()!=null) failure = failure.getCause();
+				if (failure==null) subscriber.onComplete();
+				else subscriber.onError(failure);
+				return;
+			}
+			if (demand.get()!=Long.MAX_VALUE) demand.addAndGet(-packets.size());
+			for (DatagramPacket p: packets) {
+				if (terminated.get()) break;
+				subscriber.onNext(p);
+			}
+			receiving.set(false);
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+
+// one packet is requested at a time and only once there was credit for the one before, so upstream runs no faster than the peer reads
+class DatagramSubscriber implements Flow.Subscriber<DatagramPacket> {
+
+	private final DatagramPacketChannel channel;
+	private Flow.Subscription subscription;
+	// the packet being sent, completed from the start so that onComplete has something to wait for
+	private volatile CompletableFuture<Void> sending = CompletableFuture.completedFuture(null);
+
+	DatagramSubscriber(DatagramPacketChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription!=null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(DatagramPacket p) {
+		try {
+			// sent by the publisher's thread while there is credit, only waiting for it is left to the channel
+			if (channel.trySend(p)) {
+				subscription.request(1);
+				return;
+			}
+			sending = channel.sendAsync(p);
+		} catch (IOException|RuntimeException e) {
+			// closed or too large for the channel, nothing that follows it can be sent in order anymore
+			subscription.cancel();
+			close();
+			return;
+		}
+		sending.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void sent, Throwable failure) {
+				if (failure==null) {
+					subscription.request(1);
+				} else {
+					subscription.cancel();
+					close();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onError(Throwable failure) {
+		close();
+	}
+
+	// the channel closes once the last packet is on the wire
+	@Override
+	public void onComplete() {
+		close();
+	}
+
+	// Channel.close waits for the peer to answer, which is never done on the publisher's thread
+	private void close() {
+		sending.whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+			public void accept(Void sent, Throwable failure) {
+				try {
+					channel.close();
+				} catch (IOException ioe) {
+					// the Multiplexer is already gone
+				}
+			}
+		}, channel.home.getCompletionExecutor());
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.nio.ByteBuffer;
+
+// the ring in native memory, a window full of data in transit is then neither part of the heap nor copied or scanned by the collector
+public class DirectCircularBuffer extends CircularBuffer {
+
+	// only touched with the field lock held, so its position and limit are free to use for every copy
+	private ByteBuffer cbuff;
+	private final WindowPool<ByteBuffer> pool;
+
+	public DirectCircularBuffer(int cbuffSize) {
+		super(0, cbuffSize-1);
+		cbuff = ByteBuffer.allocateDirect(cbuffSize);
+		pool = null;
+	}
+
+	DirectCircularBuffer(int capacity, WindowPool<ByteBuffer> pool) {
+		super(0, WindowPool.sizeClass(Math.min(capacity, WindowPool.INITIAL_SIZE))-1, capacity, true);
+		cbuff = pool.take(lastIndex+1);
+		this.pool = pool;
+	}
+
+	// TODO storage
+	int get(int index) {
+		return cbuff.get(index)&0xFF;
+	}
+
+	void put(int index, int b) {
+		cbuff.put(index, (byte) b);
+	}
+
+	void get(int index, byte[] b, int off, int len) {
+		cbuff.clear().position(index);
+		cbuff.get(b, off, len);
+	}
+
+	void put(int index, byte[] b, int off, int len) {
+		cbuff.clear().position(index);
+		cbuff.put(b, off, len);
+	}
+
+	void put(int index, ByteBuffer src, int len) {
+		int limit = src.limit();
+		cbuff.clear().position(index);
+		src.limit(src.position()+len);
+		cbuff.put(src);
+		src.limit(limit);
+	}
+
+	// unpooled, the old memory is given back once the collector finds its ByteBuffer unreachable
+	void reallocate(int newSize) {
+		ByteBuffer b = pool!=null?pool.take(newSize):ByteBuffer.allocateDirect(newSize);
+		b.clear();
+		int remaining = lastIndex-rp+1;
+		cbuff.clear().position(rp);
+		if (readable <= remaining) {
+			cbuff.limit(rp+readable);
+			b.put(cbuff);
+		} else {
+			b.put(cbuff);
+			cbuff.clear().position(FIRST_INDEX).limit(FIRST_INDEX+readable-remaining);
+			b.put(cbuff);
+		}
+		if (pool!=null) pool.give(cbuff, cbuff.capacity());
+		cbuff = b;
+	}
+
+	void release() {
+		pool.give(cbuff, cbuff.capacity());
+		cbuff = null;
+	}
+
+}
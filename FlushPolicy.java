@@ -0,0 +1,48 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+public class FlushPolicy {
+
+	private final int batchBytes;
+	private final long delayMicros;
+	
+	private FlushPolicy(int batchBytes, long delayMicros) {
+		if (batchBytes<1) throw new IllegalArgumentException("batchBytes must be at least 1");
+		if (delayMicros<0) throw new IllegalArgumentException("delayMicros cannot be negative");
+		this.batchBytes = batchBytes;
+		this.delayMicros = delayMicros;
+	}
+	
+	// flush as soon as everything that is queued has been written
+	public static FlushPolicy immediate() {
+		return new FlushPolicy(Integer.MAX_VALUE, 0);
+	}
+	
+	// flush every time batchBytes have been written or when nothing else is queued
+	public static FlushPolicy bytes(int batchBytes) {
+		return new FlushPolicy(batchBytes, 0);
+	}
+	
+	// after the first unflushed frame wait up to delayMicros for more before flushing
+	public static FlushPolicy delay(long delayMicros) {
+		return new FlushPolicy(Integer.MAX_VALUE, delayMicros);
+	}
+	
+	// whichever of the two comes first
+	public static FlushPolicy bytesOrDelay(int batchBytes, long delayMicros) {
+		return new FlushPolicy(batchBytes, delayMicros);
+	}
+	
+	public int getBatchBytes() {
+		return batchBytes;
+	}
+	
+	public long getDelayMicros() {
+		return delayMicros;
+	}
+	
+	@Override
+	public String toString() {
+		return "FlushPolicy[batchBytes="+batchBytes+", delayMicros="+delayMicros+"]";
+	}
+	
+}
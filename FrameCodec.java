@@ -0,0 +1,247 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+// the wire format of one direction of a connection, both start out as LEGACY until a HELLO exchange agrees on another
+class FrameCodec {
+
+	// 2B_len, 2B_channel, 3B_credit, 1B_flags, or 4B_len in front of the same fields once jumbo frames are agreed on
+	static final int HEADER_LENGTH = 8;
+	static final int JUMBO_HEADER_LENGTH = 10;
+	
+	// compact: varint(len<<2|hasCredit<<1|hasFlags), varint(channel), 1B_flags if any, varint(credit) if any
+	// the varint carries channels up to MAX_CONNECTION, the fixed header only up to MAX_CHANNEL
+	private static final int HAS_FLAGS = 1;
+	private static final int HAS_CREDIT = 2;
+	
+	static final FrameCodec LEGACY = new FrameCodec(FrameIntegrity.CRC32, Multiplexer.MAX_PAYLOAD_SIZE, false);
+	
+	// HELLO payloads are a list of 1B_key 4B_value options, unknown keys are skipped
+	static final int OPTION_INTEGRITY = 1;
+	static final int OPTION_MAX_PAYLOAD = 2;
+	static final int OPTION_COMPACT_HEADER = 3;
+	
+	// indexes of the header fields filled in by header()
+	static final int LENGTH = 0;
+	static final int CHANNEL = 1;
+	static final int CREDIT = 2;
+	static final int FLAGS = 3;
+	
+	final FrameIntegrity integrity;
+	final int maxPayload;
+	final boolean compact;
+	// only for the fixed header
+	final int lengthBytes;
+	final int headerLength;
+	final int trailerLength;
+	
+	FrameCodec(FrameIntegrity integrity, int maxPayload, boolean compact) {
+		if (integrity==null) throw new NullPointerException();
+		this.integrity = integrity;
+		this.maxPayload = maxPayload;
+		this.compact = compact;
+		this.lengthBytes = maxPayload>Multiplexer.MAX_PAYLOAD_SIZE?4:2;
+		this.headerLength = maxPayload>Multiplexer.MAX_PAYLOAD_SIZE?JUMBO_HEADER_LENGTH:HEADER_LENGTH;
+		this.trailerLength = (integrity==FrameIntegrity.CRC32||integrity==FrameIntegrity.CRC32C)?4:0;
+	}
+	
+	// per frame for CRC32 and CRC32C, running across a whole batch for BATCH
+	Checksum newChecksum() {
+		switch (integrity) {
+		case CRC32:
+			return new CRC32();
+		case CRC32C:
+		case BATCH:
+			return new CRC32C();
+		default:
+			return null;
+		}
+	}
+	
+	// with copy set the payload is copied in so that the frame is a single buffer
+	ByteBuffer[] encode(int channel, int credit, int flags, byte[] b, int off, int len, boolean copy) {
+		int header = compact?varintLength(len<<2)+varintLength(channel)+(flags!=0?1:0)+(credit!=0?varintLength(credit):0):headerLength;
+		byte[] frame = new byte[copy?header+len+trailerLength:header+trailerLength];
+		ByteBuffer buf = ByteBuffer.wrap(frame);
+		int trailer = frame.length-trailerLength;
+		
+		// header
+		if (compact) {
+			int at = putVarint(frame, 0, len<<2|(credit!=0?HAS_CREDIT:0)|(flags!=0?HAS_FLAGS:0));
+			at = putVarint(frame, at, channel);
+			if (flags!=0) frame[at++] = (byte) flags;
+			if (credit!=0) putVarint(frame, at, credit);
+		} else {
+			assert(channel<=Multiplexer.MAX_CHANNEL);
+			if (lengthBytes==2) buf.putShort(0, (short) len);
+			else buf.putInt(0, len);
+			buf.putShort(lengthBytes, (short) channel);
+			buf.put(lengthBytes+2, (byte) (credit>>>16));
+			buf.putShort(lengthBytes+3, (short) credit);
+			buf.put(lengthBytes+5, (byte) flags);
+		}
+		
+		if (copy&&b!=null) System.arraycopy(b, off, frame, header, len);
+		
+		// trailer
+		if (trailerLength>0) {
+			Checksum crc = newChecksum();
+			crc.update(frame, 0, header);	// header
+			if (b!=null) crc.update(b, off, len);	// payload
+			buf.putInt(trailer, (int) crc.getValue());
+		}
+		
+		if (copy) return new ByteBuffer[] {buf};
+		return new ByteBuffer[] {
+				ByteBuffer.wrap(frame, 0, header),
+				b!=null?ByteBuffer.wrap(b, off, len):ByteBuffer.wrap(frame, header, 0),
+				ByteBuffer.wrap(frame, header, trailerLength)
+		};
+	}
+	
+	// folds the frames into the running checksum and returns the SUM frame that ends the batch, only for BATCH
+	ByteBuffer seal(Checksum running, ByteBuffer[] frames, int offset, int length) {
+		for (int i=offset; i<offset+length; i++) {
+			ByteBuffer frame = frames[i];
+			running.update(frame.array(), frame.arrayOffset()+frame.position(), frame.remaining());
+		}
+		byte[] sum = new byte[4];
+		ByteBuffer.wrap(sum).putInt(0, (int) running.getValue());
+		running.reset();
+		return encode(0, 0, Multiplexer.FLAG_SUM, sum, 0, sum.length, true)[0];
+	}
+	
+	// reads the header at start into fields, returns its length or 0 if it does not end before limit
+	int header(ByteBuffer buf, int start, int limit, int[] fields) throws IOException {
+		if (!compact) {
+			if (limit-start<headerLength) return 0;
+			fields[LENGTH] = lengthBytes==2?buf.getShort(start)&0xffff:buf.getInt(start);
+			int at = start+lengthBytes;
+			fields[CHANNEL] = buf.getShort(at)&0xffff;
+			fields[CREDIT] = (buf.get(at+2)&0xff)<<16|(buf.getShort(at+3)&0xffff);
+			fields[FLAGS] = buf.get(at+5)&0xff;
+			return headerLength;
+		}
+		
+		int at = getVarint(buf, start, limit, fields, LENGTH);
+		if (at<0) return 0;
+		int present = fields[LENGTH]&(HAS_FLAGS|HAS_CREDIT);
+		fields[LENGTH] >>>= 2;
+		if ((at=getVarint(buf, at, limit, fields, CHANNEL))<0) return 0;
+		// a varint of 5 bytes can carry the sign bit
+		if (fields[CHANNEL]<0||fields[CHANNEL]>Multiplexer.MAX_CONNECTION) throw new IOException("Malformed header");
+		fields[FLAGS] = 0;
+		if ((present&HAS_FLAGS)!=0) {
+			if (at>=limit) return 0;
+			fields[FLAGS] = buf.get(at++)&0xff;
+		}
+		fields[CREDIT] = 0;
+		if ((present&HAS_CREDIT)!=0&&(at=getVarint(buf, at, limit, fields, CREDIT))<0) return 0;
+		if (fields[CREDIT]<0) throw new IOException("Malformed header");
+		return at-start;
+	}
+	
+	// checks the frame at start whose header has already been read, rx is the checksum returned by newChecksum
+	void verify(ByteBuffer buf, int start, int header, int len, int flags, Checksum rx) throws IOException {
+		int limit = buf.limit();
+		int position = buf.position();
+		try {
+			switch (integrity) {
+			case CRC32:
+			case CRC32C:
+				long packetCRC = buf.getInt(start+header+len)&0xffffffffL;
+				rx.reset();
+				buf.limit(start+header+len).position(start);
+				rx.update(buf);
+				if (packetCRC!=rx.getValue()) throw new IOException("Malformed packet");
+				break;
+				
+			case BATCH:
+				// frames are delivered before their batch is verified, corruption closes the connection at the end of the batch
+				if (flags==Multiplexer.FLAG_SUM) {
+					if (len!=4||(buf.getInt(start+header)&0xffffffffL)!=rx.getValue()) throw new IOException("Malformed batch");
+					rx.reset();
+				} else {
+					buf.limit(start+header+len).position(start);
+					rx.update(buf);
+				}
+				break;
+				
+			case NONE:
+				break;
+			}
+		} finally {
+			buf.limit(limit).position(position);
+		}
+	}
+	
+	// LEB128, returns the index after it
+	static int putVarint(byte[] b, int at, int value) {
+		while ((value&~0x7f)!=0) {
+			b[at++] = (byte) (value|0x80);
+			value >>>= 7;
+		}
+		b[at++] = (byte) value;
+		return at;
+	}
+	
+	static int varintLength(int value) {
+		return (31-Integer.numberOfLeadingZeros(value|1))/7+1;
+	}
+	
+	// stores the varint at into fields[field] and returns the index after it, -1 if it does not end before limit
+	static int getVarint(ByteBuffer buf, int at, int limit, int[] fields, int field) throws IOException {
+		int value = 0;
+		for (int shift=0; shift<32; shift+=7) {
+			if (at>=limit) return -1;
+			byte b = buf.get(at++);
+			value |= (b&0x7f)<<shift;
+			if (b>=0) {
+				fields[field] = value;
+				return at;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	// maxPayload is the largest payload this side accepts, only sent when it is above what the original header can carry
+	static byte[] hello(FrameIntegrity integrity, int maxPayload, boolean compact) {
+		ByteBuffer hello = ByteBuffer.allocate(15);
+		hello.put((byte) OPTION_INTEGRITY).putInt(integrity!=null?integrity.code:0);
+		if (maxPayload>Multiplexer.MAX_PAYLOAD_SIZE) hello.put((byte) OPTION_MAX_PAYLOAD).putInt(maxPayload);
+		if (compact) hello.put((byte) OPTION_COMPACT_HEADER).putInt(1);
+		return Arrays.copyOf(hello.array(), hello.position());
+	}
+	
+	// a side without a preference takes the other's, conflicting preferences fall back to the original format
+	// frames are never larger than what both sides accept and compact headers are only used if both ask for them
+	static FrameCodec negotiate(FrameIntegrity local, int localMaxPayload, boolean localCompact, ByteBuffer peerHello) {
+		FrameIntegrity remote = null;
+		int remoteMaxPayload = Multiplexer.MAX_PAYLOAD_SIZE;
+		boolean remoteCompact = false;
+		while (peerHello.remaining()>=5) {
+			int key = peerHello.get()&0xff;
+			int value = peerHello.getInt();
+			if (key==OPTION_INTEGRITY) remote = FrameIntegrity.valueOf(value);
+			if (key==OPTION_MAX_PAYLOAD) remoteMaxPayload = Math.max(Multiplexer.MAX_PAYLOAD_SIZE, Math.min(value, Multiplexer.MAX_BUFFER_SIZE));
+			if (key==OPTION_COMPACT_HEADER) remoteCompact = value!=0;
+		}
+		
+		FrameIntegrity integrity;
+		if (local==remote) integrity = local;
+		else if (local==null) integrity = remote;
+		else if (remote==null) integrity = local;
+		else integrity = FrameIntegrity.CRC32;
+		
+		int maxPayload = Math.min(localMaxPayload, remoteMaxPayload);
+		boolean compact = localCompact&&remoteCompact;
+		if (integrity==null&&maxPayload==Multiplexer.MAX_PAYLOAD_SIZE&&!compact) return LEGACY;
+		return new FrameCodec(integrity!=null?integrity:FrameIntegrity.CRC32, maxPayload, compact);
+	}
+	
+}
@@ -0,0 +1,30 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+public enum FrameIntegrity {
+
+	// 4 byte java.util.zip.CRC32 trailer on every frame, the original format
+	CRC32(1),
+	
+	// the same trailer computed with CRC32C, which modern JVMs compute with hardware instructions
+	CRC32C(2),
+	
+	// no trailer, each flush ends with one frame holding the CRC32C of every frame before it
+	BATCH(3),
+	
+	// no trailer at all, for transports that already guarantee integrity such as TLS or loopback
+	NONE(4);
+	
+	final int code;
+	
+	private FrameIntegrity(int code) {
+		this.code = code;
+	}
+	
+	static FrameIntegrity valueOf(int code) {
+		for (FrameIntegrity integrity: values()) {
+			if (integrity.code==code) return integrity;
+		}
+		return null;
+	}
+	
+}
@@ -0,0 +1,256 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// the FrameWriter's queue: strict priority between levels, deficit round robin by weight between the channels of one level
+class FrameScheduler {
+
+	// connection level frames, codec switches and POISON, nothing queued after one of these overtakes it
+	static final int BARRIER = -1;
+
+	// heartbeats, ahead of every channel
+	static final int HEARTBEAT = -2;
+	
+	// bytes a channel of weight 1 may send per round
+	static final int QUANTUM = 16384;
+
+	private static class Flow {
+		final int channel;
+		int priority = 0;
+		int weight = 1;
+		long deficit;
+		boolean active;
+		final ArrayDeque<ByteBuffer> frames = new ArrayDeque<ByteBuffer>();
+
+		Flow(int channel) {
+			this.channel = channel;
+		}
+	}
+
+	private static class Deferred {
+		final int channel;
+		final Object item;
+
+		Deferred(int channel, Object item) {
+			this.channel = channel;
+			this.item = item;
+		}
+	}
+
+	private final HashMap<Integer, Flow> flows = new HashMap<Integer, Flow>();
+	// flows with frames queued, by priority from the highest down
+	private final TreeMap<Integer, ArrayDeque<Flow>> rounds = new TreeMap<Integer, ArrayDeque<Flow>>(Collections.<Integer>reverseOrder());
+	// a barrier and everything queued after it, released once the flows have run dry
+	private final ArrayDeque<Deferred> deferred = new ArrayDeque<Deferred>();
+	private int queued = 0;
+	// channels set to a priority other than the default
+	private int ranked = 0;
+	// set together with the last item, anything added after it would never be taken
+	private boolean closed = false;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition nonEmpty = lock.newCondition();
+	
+	FrameScheduler() {
+		setPriority(HEARTBEAT, Integer.MAX_VALUE, 1);
+	}
+
+	// false once closed, the item was not queued
+	boolean add(int channel, Object item) {
+		lock.lock();
+		try {
+			if (closed) return false;
+			if (channel==BARRIER||!deferred.isEmpty()) {
+				deferred.add(new Deferred(channel, item));
+			} else {
+				enqueue(channel, (ByteBuffer) item);
+			}
+			nonEmpty.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	// last is a barrier taken after everything queued before it, nothing can be added after it
+	void close(Object last) {
+		lock.lock();
+		try {
+			if (closed) return;
+			deferred.add(new Deferred(BARRIER, last));
+			closed = true;
+			nonEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	Object take() throws InterruptedException {
+		lock.lock();
+		try {
+			Object item;
+			while ((item=next())==null) nonEmpty.await();
+			return item;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	Object poll() {
+		lock.lock();
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+		lock.lock();
+		try {
+			long deadline = System.nanoTime()+unit.toNanos(timeout);
+			Object item;
+			while ((item=next())==null) {
+				long wait = deadline-System.nanoTime();
+				if (wait<=0) return null;
+				nonEmpty.awaitNanos(wait);
+			}
+			return item;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void clear() {
+		lock.lock();
+		try {
+			closed = true;
+			flows.clear();
+			rounds.clear();
+			deferred.clear();
+			queued = 0;
+			ranked = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void setPriority(int channel, int priority, int weight) {
+		lock.lock();
+		try {
+			Flow flow = flows.get(channel);
+			if (flow==null) flows.put(channel, flow = new Flow(channel));
+			if (channel!=HEARTBEAT) ranked += (priority!=0?1:0)-(flow.priority!=0?1:0);
+			if (flow.active&&flow.priority!=priority) {
+				deactivate(flow);
+				flow.priority = priority;
+				activate(flow);
+			}
+			flow.priority = priority;
+			flow.weight = weight;
+			forget(flow);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// a higher priority channel is waiting for the wire
+	boolean hasWaitingAbove(int priority) {
+		lock.lock();
+		try {
+			return !rounds.isEmpty()&&rounds.firstKey()>priority;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// some channel may jump ahead of the others at any moment
+	boolean isRanked() {
+		lock.lock();
+		try {
+			return ranked>0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// more than one channel is waiting for the wire
+	boolean isContended() {
+		lock.lock();
+		try {
+			return rounds.size()>1||(!rounds.isEmpty()&&rounds.firstEntry().getValue().size()>1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(int channel, ByteBuffer frame) {
+		Flow flow = flows.get(channel);
+		if (flow==null) flows.put(channel, flow = new Flow(channel));
+		flow.frames.add(frame);
+		queued++;
+		if (!flow.active) activate(flow);
+	}
+
+	private Object next() {
+		if (queued>0) return dequeue();
+		if (deferred.isEmpty()) return null;
+
+		// everything before the barrier is on its way, let it and whatever follows it up to the next barrier through
+		Object barrier = deferred.poll().item;
+		while (!deferred.isEmpty()&&deferred.peek().channel!=BARRIER) {
+			Deferred d = deferred.poll();
+			enqueue(d.channel, (ByteBuffer) d.item);
+		}
+		return barrier;
+	}
+
+	private ByteBuffer dequeue() {
+		ArrayDeque<Flow> round = rounds.firstEntry().getValue();
+		while (true) {
+			Flow flow = round.peek();
+			ByteBuffer frame = flow.frames.peek();
+			if (flow.deficit>=frame.remaining()) {
+				flow.deficit -= frame.remaining();
+				flow.frames.poll();
+				queued--;
+				if (flow.frames.isEmpty()) {
+					deactivate(flow);
+					forget(flow);
+				}
+				return frame;
+			}
+			// out of quantum, to the back of the round with another one
+			flow.deficit += (long) flow.weight*QUANTUM;
+			round.add(round.poll());
+		}
+	}
+
+	private void activate(Flow flow) {
+		ArrayDeque<Flow> round = rounds.get(flow.priority);
+		if (round==null) rounds.put(flow.priority, round = new ArrayDeque<Flow>());
+		round.add(flow);
+		flow.deficit = (long) flow.weight*QUANTUM;
+		flow.active = true;
+	}
+
+	private void deactivate(Flow flow) {
+		ArrayDeque<Flow> round = rounds.get(flow.priority);
+		round.remove(flow);
+		if (round.isEmpty()) rounds.remove(flow.priority);
+		flow.deficit = 0;
+		flow.active = false;
+	}
+
+	// idle flows with default settings are created again on demand
+	private void forget(Flow flow) {
+		if (!flow.active&&flow.priority==0&&flow.weight==1) flows.remove(flow.channel);
+	}
+
+}
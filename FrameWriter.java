@@ -0,0 +1,137 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+// drains frames queued by many channels into as few writes and flushes as the FlushPolicy allows
+class FrameWriter implements Runnable {
+
+	private static final Object POISON = new Object();
+	
+	// most kernels refuse gathering writes with more buffers than this (IOV_MAX)
+	private static final int MAX_BATCH_FRAMES = 1024;
+	
+	// while several channels compete, or any has a priority of its own, a flush stops here so a higher priority frame is never stuck behind a huge write
+	private static final int CONTENDED_BATCH_BYTES = 4*FrameScheduler.QUANTUM;
+	
+	final Thread handle;
+	private final Transport transport;
+	private final Runnable onFailure;
+	private final int batchBytes;
+	private final long delayNanos;
+	// frames, or a FrameCodec that every frame queued after it is encoded with
+	private final FrameScheduler queue = new FrameScheduler();
+	// one spare slot for the SUM frame that seals a BATCH flush
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES+1];
+	
+	private FrameCodec codec = FrameCodec.LEGACY;
+	private Checksum sum;
+	
+	private volatile IOException failure;
+	private volatile boolean closed = false;
+	
+	FrameWriter(Transport transport, FlushPolicy policy, boolean virtual, Runnable onFailure) {
+		this.batchBytes = policy.getBatchBytes();
+		this.delayNanos = TimeUnit.MICROSECONDS.toNanos(policy.getDelayMicros());
+		this.transport = transport;
+		this.onFailure = onFailure;
+		handle = Multiplexer.newThread(this, Thread.currentThread().getName()+"writer", virtual);
+		handle.start();
+	}
+	
+	// frame must be fully encoded and must not be modified afterwards, channel is FrameScheduler.BARRIER for connection level frames
+	void write(int channel, ByteBuffer frame) throws IOException {
+		if (failure!=null) throw new IOException("FrameWriter failed", failure);
+		if (closed) throw new IOException("FrameWriter Closed");
+		// checked again with the POISON, a frame that loses the race with close is refused rather than dropped
+		if (!queue.add(channel, frame)) {
+			if (failure!=null) throw new IOException("FrameWriter failed", failure);
+			throw new IOException("FrameWriter Closed");
+		}
+	}
+	
+	// must be queued under the same lock as the FORMAT frame that announces it
+	void switchCodec(FrameCodec codec) {
+		queue.add(FrameScheduler.BARRIER, codec);
+	}
+	
+	void setPriority(int channel, int priority, int weight) {
+		queue.setPriority(channel, priority, weight);
+	}
+	
+	boolean hasWaitingAbove(int priority) {
+		return queue.hasWaitingAbove(priority);
+	}
+	
+	@Override
+	public void run() {
+		try {
+			Object frame;
+			while ((frame=queue.take())!=POISON) {
+				long deadline = System.nanoTime()+delayNanos;
+				long pending = 0;
+				int count = 0;
+				while (frame!=null&&frame!=POISON) {
+					if (frame instanceof FrameCodec) {
+						// frames queued before the switch belong to the old format's batch
+						if (count>0) flush(count);
+						pending = count = 0;
+						codec = (FrameCodec) frame;
+						sum = codec.newChecksum();
+					} else {
+						batch[count++] = (ByteBuffer) frame;
+						pending += ((ByteBuffer) frame).remaining();
+						if (pending>=batchBytes||count==MAX_BATCH_FRAMES||(pending>=CONTENDED_BATCH_BYTES&&(queue.isContended()||queue.isRanked()))) {
+							flush(count);
+							pending = count = 0;
+							deadline = System.nanoTime()+delayNanos;
+						}
+					}
+					
+					frame = queue.poll();
+					if (frame==null&&count>0&&delayNanos>0) {
+						long wait = deadline-System.nanoTime();
+						if (wait>0) frame = queue.poll(wait, TimeUnit.NANOSECONDS);
+					}
+				}
+				if (count>0) flush(count);
+				if (frame==POISON) break;
+			}
+		} catch (IOException ioe) {
+			failure = ioe;
+			onFailure.run();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closed = true;
+			queue.clear();
+		}
+	}
+	
+	private void flush(int count) throws IOException {
+		if (codec.integrity==FrameIntegrity.BATCH) {
+			batch[count] = codec.seal(sum, batch, 0, count);
+			count++;
+		}
+		transport.awaitRoom();
+		transport.write(batch, 0, count);
+		for (int i=0; i<count; i++) batch[i] = null;
+	}
+	
+	// frames queued before this call are still written
+	void close(boolean drain) {
+		if (closed) return;
+		closed = true;
+		queue.close(POISON);
+		if (drain&&Thread.currentThread()!=handle) {
+			try {
+				handle.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+}
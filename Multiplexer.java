@@ -1,13 +1,34 @@
 package com.github.ezekielnewren.net.multiplexer;
 
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.BitSet;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.CRC32;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.Checksum;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 
@@ -21,6 +42,15 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 	public static final long DEFAULT_CONNECTION_TIMEOUT = 60000;
 	public static final int MAX_BUFFER_SIZE = 0xffffff;
 	public static final int MAX_PAYLOAD_SIZE = 0xffff;
+	// connects to a service on this id bind the next free id of the ephemeral range instead
+	public static final int EPHEMERAL_CHANNEL = -1;
+	// the same share of the id space as the dynamic ports of TCP
+	static final int DEFAULT_FIRST_EPHEMERAL_CHANNEL = 0xc000;
+	// payload of a frame sent while a channel of higher priority is waiting
+	static final int PREEMPTED_PAYLOAD_SIZE = 4096;
+	// an autotuned window starts here, and heartbeats measure the round trip it is sized by if none were asked for
+	static final int AUTOTUNE_MIN_WINDOW = 1<<16;
+	private static final long AUTOTUNE_HEARTBEAT_MILLIS = 1000;
 	  
 	static final int FLAG_NULL = 0x0;
 	static final int FLAG_SYN = 0x1;
@@ -32,6 +62,18 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 	static final int FLAG_ICL = 0x40;
 	static final int FLAG_IOCL = FLAG_ICL|FLAG_OCL;
 	static final int FLAG_MCL = 0x80;
+	
+	// connection level frames, these never reach a channel
+	static final int FLAG_HELLO = FLAG_SYN|FLAG_KAL;			// frame format options this side would like
+	static final int FLAG_FORMAT = FLAG_SYN|FLAG_CLI|FLAG_KAL;	// every frame after this one uses the agreed format
+	static final int FLAG_SUM = FLAG_RST|FLAG_KAL;				// checksum of the batch of frames before it
+	static final int FLAG_PING = FLAG_KAL;						// heartbeat, carries the sender's clock
+	static final int FLAG_PONG = FLAG_KAL|FLAG_CLI;				// the heartbeat sent back unchanged
+	
+	// options carried in the payload of a SYN, peers that do not know them send a SYN without payload
+	static final int SYN_DEFLATE = 0x1;
+	// followed by the 2 byte id of the service the SYN's channel is meant to connect to
+	static final int SYN_SERVICE = 0x2;
 
 	// Channel states
 	private static int i = 0;
@@ -39,6 +81,8 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 	static final long STATE_BOUND = (1<<i++);
 	static final long STATE_LISTENING = (1<<i++);
 	static final long STATE_ACCEPTING = (1<<i++);
+	// a connection to a service waiting in its backlog for accept
+	static final long STATE_QUEUED = (1<<i++);
 	static final long STATE_CONNECTING = (1<<i++);
 	static final long STATE_ESTABLISHED = (1<<i++);
 	static final long STATE_CHANNEL_IN_CLOSING_METHOD = (1<<i++);
@@ -46,7 +90,6 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 //	static final long STATE_OUTPUT_CLOSED = (1<<i++);
 	static final long STATE_CHANNEL_CLOSED = (1<<i++);
 
-	static final long LINGERING_STATES = STATE_CONNECTING|STATE_ACCEPTING|STATE_LISTENING|STATE_CHANNEL_IN_CLOSING_METHOD;
 
 	// Multiplexer states
 	static final long STATE_OPEN = (1<<i++);
@@ -56,264 +99,1027 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 	// per instance constants
 	private final Multiplexer home = this;
 	private final Demultiplexer segregator;
-	private final DataInputStream input;
-	private final OutputStream output;
-	private final byte[] recvBuffer = new byte[8+0xffff+4];
-	private final byte[] sendBuffer = new byte[8+4+1];
-	private final CRC32 sendCRC = new CRC32();
-	private final BitSet channelBound = new BitSet();
-	private final ChannelMetadata[] cmMeta = new ChannelMetadata[0x10000];
-	private final Object mutex = new Object();
+	private final Transport transport;
+	private final FrameWriter writer;
+	// grows to fit the largest frame actually received, jumbo frames included
+	private static final int INITIAL_RECV_BUFFER = 8192;
+	private ByteBuffer recvBuffer;
+	// services and every channel of the original header, connections beyond it need compact headers on both sides
+	static final int MAX_CHANNEL = 0xffff;
+	static final int MAX_CONNECTION = 0xffffff;
+	// only bound channels have an entry, a page of the table is allocated the first time one of its channels is bound
+	// and the table itself only grows past MAX_CHANNEL once a channel up there is
+	private static final int CM_PAGE_BITS = 8;
+	private static final int CM_FREE_MAX = 16;
+	private ChannelMetadata[][] cmTable = new ChannelMetadata[(MAX_CHANNEL>>>CM_PAGE_BITS)+1][];
+	private final ArrayDeque<ChannelMetadata> cmFree = new ArrayDeque<ChannelMetadata>();
+	private final ChannelIds ephemeral;
+	// locks rather than monitors so that a virtual thread blocked on a channel unmounts from its carrier
+	private final ReentrantLock mutex = new ReentrantLock();
+	// only for the Multiplexer's own state, each channel has its own conditions in its ChannelMetadata
+	private final Condition changed = mutex.newCondition();
+	
+	// one daemon thread shared by every Multiplexer for work that has to happen later
+	private static ScheduledThreadPoolExecutor scheduler;
+	private final ReentrantLock outputLock = new ReentrantLock();
+	private final FrameIntegrity integrity;
+	private final int maxPayload;
+	private final boolean compactHeaders;
+	final CreditPolicy creditPolicy;
+	final boolean autoTuneWindows;
+	private final boolean directWindows;
+	private final boolean pooledWindows;
+	private final AtomicBoolean leftPool = new AtomicBoolean();
+	// asynchronous operations complete here so that nothing the application chains onto them runs on the Demultiplexer
+	private final Executor completions;
+	
+	final MultiplexerMetrics metrics = new MultiplexerMetrics(this);
+	// null unless the metrics are registered as MBeans
+	private final String jmxName;
+	private int boundChannels = 0;
+	
+	// heartbeats start once the peer has said hello, which every peer that answers them does
+	private final long heartbeatMillis;
+	private final int missedBeats;
+	private volatile ScheduledFuture<?> heartbeat;
+	private final AtomicInteger unanswered = new AtomicInteger();
+	// set while a PING is on its way to the transport, the next beat does not queue another one behind it
+	private final AtomicBoolean pinging = new AtomicBoolean();
+	// smoothed round trip time and its variance in nanoseconds as in RFC 6298, guarded by rttLock
+	private final Object rttLock = new Object();
+	private long srtt = 0;
+	private long rttvar = 0;
 
 	private long state = STATE_OPEN;
 	
+	// wire format, guarded by outputLock but read without it to encode frames
+	private volatile FrameCodec txCodec = FrameCodec.LEGACY;
+	private volatile FrameCodec agreedCodec;
+	private Checksum txSum;
+	private boolean helloSent = false;
+	
 	public Multiplexer(InputStream is, OutputStream os, int... prePasvOpen) throws IOException {
-		input = (is instanceof DataInputStream)?(DataInputStream)is:new DataInputStream(is);
-		output = os;
+		this(is, os, new MultiplexerConfig(), prePasvOpen);
+	}
+	
+	public Multiplexer(InputStream is, OutputStream os, MultiplexerConfig config, int... prePasvOpen) throws IOException {
+		this(new StreamTransport(is, os), config, true, prePasvOpen);
+	}
+	
+	public Multiplexer(ByteChannel channel, int... prePasvOpen) throws IOException {
+		this(channel, new MultiplexerConfig(), prePasvOpen);
+	}
+	
+	public Multiplexer(ByteChannel channel, MultiplexerConfig config, int... prePasvOpen) throws IOException {
+		this(new ByteChannelTransport(channel, config.isDirectBuffers()), config, true, prePasvOpen);
+	}
+	
+	// without a thread of its own the Multiplexer only reads frames when readAvailable is called
+	Multiplexer(Transport transport, MultiplexerConfig config, boolean threaded, int... prePasvOpen) throws IOException {
+		this.transport = transport;
+		this.integrity = config.getFrameIntegrity();
+		this.maxPayload = config.getMaxPayloadSize();
+		this.compactHeaders = config.isCompactHeaders();
+		this.creditPolicy = config.getCreditPolicy();
+		this.autoTuneWindows = config.isAutoTuneWindows();
+		this.directWindows = config.isDirectWindows();
+		this.pooledWindows = config.isPooledWindows();
+		this.completions = config.getCompletionExecutor();
+		this.ephemeral = new ChannelIds(config.getFirstEphemeralChannel(), config.getLastEphemeralChannel());
+		if (autoTuneWindows&&config.getHeartbeatMillis()==0) {
+			// only for the round trip time, a silent peer is left to the transport
+			this.heartbeatMillis = AUTOTUNE_HEARTBEAT_MILLIS;
+			this.missedBeats = Integer.MAX_VALUE;
+		} else {
+			this.heartbeatMillis = config.getHeartbeatMillis();
+			this.missedBeats = config.getMissedBeats();
+		}
+		recvBuffer = transport.allocate(INITIAL_RECV_BUFFER);
+		
+		this.jmxName = config.getJmxName();
+		if (jmxName!=null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(-1));
+			} catch (JMException jme) {
+				throw new IOException("could not register the MBean for "+jmxName, jme);
+			}
+		}
 		
-		for (int i=0; i<cmMeta.length; i++) {
-			cmMeta[i] = new ChannelMetadata();
+		if (config.getFlushPolicy()!=null) {
+			writer = new FrameWriter(transport, config.getFlushPolicy(), config.isVirtualThreads(), new Runnable() {
+				public void run() {
+					closeQuietly();
+				}
+			});
+		} else {
+			writer = null;
 		}
-
-		synchronized(mutex) {
+		
+		mutex.lock();
+		try {
 			for (int i=0; i<prePasvOpen.length; i++) {
 				listen(prePasvOpen[i]);
 			}
+		} finally {
+			mutex.unlock();
 		}
 		
-		segregator = new Demultiplexer();
+		// a side without any preference only says hello once it is greeted
+		if (integrity!=null||maxPayload>MAX_PAYLOAD_SIZE||compactHeaders||heartbeatMillis>0) sendHello();
+		
+		segregator = new Demultiplexer(threaded, config.isVirtualThreads());
+		if (pooledWindows) windowPool().join();
 	}
 
 	void writePacket(int channel, int credit, byte[] b, int off, int len, int flags) throws IOException {
-		// 2B_len, 2B_channel, 3B_credit, 1B_flags, ...B_payload, 4B_crc
+		// header, ...B_payload, 4B_crc
+		FrameCodec codec = txCodec;
 		if (b!=null) {
 			if ((off < 0) || (off > b.length) || (len < 0) ||
 					((off + len) > b.length) || ((off + len) < 0) ||
-					(len>0xffff)) {
+					(len>codec.maxPayload)) {
 				throw new IndexOutOfBoundsException();
 			}
 		} else {
 			if ((off|len)!=0) throw new IllegalArgumentException("len and off must be 0 if b is null");
 		}
-		synchronized(mutex) {
-
-			// header
-			numberToBytes(len, sendBuffer, 0, 2);
-			numberToBytes(channel, sendBuffer, 2, 2);
-			numberToBytes(credit, sendBuffer, 4, 3);
-			sendBuffer[7] = (byte) flags;
+		
+		// the frame is encoded by the calling thread, only putting it on the wire is serialized
+		ByteBuffer[] frame = codec.encode(channel, credit, flags, b, off, len, writer!=null);
 
-			// trailer
-			sendCRC.reset();
-			sendCRC.update(sendBuffer, 0, 8);			// header
-			if (b!=null) sendCRC.update(b, off, len);	// payload
-			numberToBytes(sendCRC.getValue(), sendBuffer, 8, 4);
+		try {
+			// a transport driven by an event loop queues what the socket does not take, data waits here for it to drain
+			if (writer==null&&!mutex.isHeldByCurrentThread()&&!outputLock.isHeldByCurrentThread()) transport.awaitRoom();
+			outputLock.lock();
+			try {
+				// the format was renegotiated while this frame was being encoded
+				if (codec!=txCodec) frame = txCodec.encode(channel, credit, flags, b, off, len, writer!=null);
+				send(channel, frame);
+			} finally {
+				outputLock.unlock();
+			}
+		} catch (IOException ioe) {
+			closeQuietly();
+			throw ioe;
+		}
+	}
+	
+	private void send(int channel, ByteBuffer[] frame) throws IOException {
+		assert(outputLock.isHeldByCurrentThread());
+		
+		int bytes = 0;
+		for (ByteBuffer part: frame) bytes += part.remaining();
+		metrics.framesSent.increment();
+		metrics.bytesSent.add(bytes);
+		
+		if (writer!=null) {
+			// the writer thread owns the transport, the frame was encoded as a single buffer for it
+			writer.write(channel, frame[0]);
+			return;
+		}
+		if (txCodec.integrity==FrameIntegrity.BATCH) {
+			// without a writer thread every frame is flushed by itself and so is a batch of its own
+			ByteBuffer[] sealed = Arrays.copyOf(frame, frame.length+1);
+			sealed[frame.length] = txCodec.seal(txSum, frame, 0, frame.length);
+			frame = sealed;
+		}
+		// header, payload and trailer in one gathering write
+		transport.write(frame);
+	}
+	
+	private void sendHello() throws IOException {
+		outputLock.lock();
+		try {
+			if (helloSent) return;
+			helloSent = true;
+			
+			byte[] hello = FrameCodec.hello(integrity, maxPayload, compactHeaders);
+			send(FrameScheduler.BARRIER, txCodec.encode(0, 0, FLAG_HELLO, hello, 0, hello.length, writer!=null));
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	// both sides have said hello, so this side's frames can switch to the agreed format
+	private void sendFormat(FrameCodec agreed) throws IOException {
+		outputLock.lock();
+		try {
+			send(FrameScheduler.BARRIER, txCodec.encode(0, 0, FLAG_FORMAT, null, 0, 0, writer!=null));
+			txCodec = agreed;
+			txSum = agreed.newChecksum();
+			if (writer!=null) writer.switchCodec(agreed);
+		} finally {
+			outputLock.unlock();
+		}
+	}
 
+	// heartbeats skip the queue of every channel but never overtake a pending format change
+	private void sendHeartbeat(int flags, byte[] clock) throws IOException {
+		try {
+			outputLock.lock();
 			try {
-				output.write(sendBuffer, 0, 8);			// send header
-				if (b!=null) output.write(b, off, len);	// send payload
-				output.write(sendBuffer, 8, 4);			// send trailer
-				output.flush();
-			} catch (IOException ioe) {
-				closeQuietly();
-				throw ioe;
+				send(FrameScheduler.HEARTBEAT, txCodec.encode(0, 0, flags, clock, 0, clock.length, writer!=null));
+			} finally {
+				outputLock.unlock();
+			}
+		} catch (IOException ioe) {
+			closeQuietly();
+			throw ioe;
+		}
+	}
+	
+	private void startHeartbeat() {
+		if (heartbeatMillis==0||heartbeat!=null) return;
+		heartbeat = getScheduler().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				beat();
 			}
+		}, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	// on the shared scheduler, so nothing in here waits for the transport or for a lock a write may be holding
+	private void beat() {
+		if (unanswered.getAndIncrement()>=missedBeats) {
+			// the peer has not answered the last missedBeats heartbeats
+			heartbeat.cancel(false);
+			// a write stuck on the dead peer may hold the locks closeQuietly takes, closing the transport first lets go of them
+			try {transport.close();} catch (IOException e){}
+			closeQuietly();
+			return;
+		}
+		// a beat whose PING is still on its way is skipped, it counts as missed all the same
+		if (pinging.compareAndSet(false, true)) {
+			completions.execute(new Runnable() {
+				public void run() {
+					ping();
+				}
+			});
+		}
+		// shrinking writes nothing
+		if (autoTuneWindows) try {tuneIdleWindows();} catch (IOException e){}
+	}
+	
+	private void ping() {
+		try {
+			// output that is busy shows the wire moving or stuck, either way the next beat finds out
+			if (!outputLock.tryLock()) return;
+			try {
+				byte[] clock = ByteBuffer.allocate(8).putLong(System.nanoTime()).array();
+				send(FrameScheduler.HEARTBEAT, txCodec.encode(0, 0, FLAG_PING, clock, 0, clock.length, writer!=null));
+			} finally {
+				outputLock.unlock();
+			}
+		} catch (IOException ioe) {
+			closeQuietly();
+		} finally {
+			pinging.set(false);
+		}
+	}
+	
+	// windows of channels the application has stopped reading only shrink here, a beat that finds the mutex taken leaves it to the next one
+	private void tuneIdleWindows() throws IOException {
+		if (!mutex.tryLock()) return;
+		try {
+			for (Channel ptr: getChannels()) {
+				if (ptr instanceof StreamChannel) ptr.tuneWindow(false);
+			}
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// what the SYN advertises and the window starts with
+	static int initialWindow(int recvBufferSize, boolean autoTune) {
+		return autoTune?Math.min(recvBufferSize, AUTOTUNE_MIN_WINDOW):recvBufferSize;
+	}
+	
+	private WindowPool<?> windowPool() {
+		return directWindows?WindowPool.DIRECT:WindowPool.HEAP;
+	}
+	
+	// once per Multiplexer, whichever way it closes
+	private void leavePool() {
+		if (pooledWindows&&!leftPool.getAndSet(true)) windowPool().leave();
+	}
+	
+	CircularBuffer newWindow(int size) {
+		if (pooledWindows) return directWindows?new DirectCircularBuffer(size, WindowPool.DIRECT):new ByteArrayCircularBuffer(size, WindowPool.HEAP);
+		return directWindows?new DirectCircularBuffer(size):new ByteArrayCircularBuffer(size);
+	}
+	
+	private void pong(ByteBuffer clock) {
+		if (clock.remaining()!=8) return;
+		unanswered.set(0);
+		long rtt = System.nanoTime()-clock.getLong(clock.position());
+		synchronized(rttLock) {
+			if (srtt==0) {
+				srtt = rtt;
+				rttvar = rtt/2;
+			} else {
+				rttvar = (3*rttvar+Math.abs(srtt-rtt))/4;
+				srtt = (7*srtt+rtt)/8;
+			}
+		}
+	}
+	
+	// 0 until the first heartbeat has been answered
+	public long getRttMicros() {
+		synchronized(rttLock) {
+			return srtt/1000;
+		}
+	}
+	
+	long getRttNanos() {
+		synchronized(rttLock) {
+			return srtt;
+		}
+	}
+	
+	public long getRttVarianceMicros() {
+		synchronized(rttLock) {
+			return rttvar/1000;
 		}
 	}
 
-	void writePacketWithOneByte(int channel, int credit, int byteValue) throws IOException {
-		synchronized(mutex) {
-			sendBuffer[12] = (byte) byteValue;
-			writePacket(channel, credit, sendBuffer, 12, 1, FLAG_NULL);
+	public MultiplexerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	int getBoundChannels() {
+		mutex.lock();
+		try {
+			return boundChannels;
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// every established channel
+	List<Channel> getChannels() {
+		List<Channel> channels = new ArrayList<Channel>();
+		mutex.lock();
+		try {
+			for (ChannelMetadata[] page: cmTable) {
+				if (page==null) continue;
+				for (ChannelMetadata cmMeta: page) {
+					if (cmMeta!=null&&cmMeta.state==STATE_ESTABLISHED) channels.add(cmMeta.ptr);
+				}
+			}
+		} finally {
+			mutex.unlock();
+		}
+		return channels;
+	}
+	
+	// the Multiplexer itself for channel -1
+	private ObjectName objectName(int channel) throws JMException {
+		String domain = Multiplexer.class.getPackage().getName();
+		if (channel<0) return new ObjectName(domain+":type=Multiplexer,name="+ObjectName.quote(jmxName));
+		return new ObjectName(domain+":type=Channel,multiplexer="+ObjectName.quote(jmxName)+",channel="+channel);
+	}
+	
+	private void unregister(int channel) {
+		try {
+			ObjectName name = objectName(channel);
+			if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException jme) {
+			if (DEBUG) jme.printStackTrace();
 		}
 	}
 
+	// Thread.ofVirtual() is looked up rather than linked so the library still runs on a JDK without it
+	static Thread newThread(Runnable task, String name, boolean virtual) {
+		if (!virtual) {
+			Thread thread = new Thread(task, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+		try {
+			Class<?> type = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = type.getMethod("name", String.class).invoke(builder, name);
+			return (Thread) type.getMethod("unstarted", Runnable.class).invoke(builder, task);
+		} catch (ReflectiveOperationException roe) {
+			throw new UnsupportedOperationException("virtual threads need Java 21", roe);
+		}
+	}
+	
+	static boolean supportsVirtualThreads() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException nsme) {
+			return false;
+		}
+	}
+
+	static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler==null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MultiplexerScheduler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			scheduler.setRemoveOnCancelPolicy(true);
+		}
+		return scheduler;
+	}
+	
+	Executor getCompletionExecutor() {
+		return completions;
+	}
+	
+	// the largest payload a single frame can carry right now
+	int getMaxPayloadSize() {
+		return txCodec.maxPayload;
+	}
+	
+	// frames of a channel are cut short while a channel of higher priority waits for the wire
+	int getFrameSize(int priority) {
+		int max = txCodec.maxPayload;
+		if (writer!=null&&writer.hasWaitingAbove(priority)) return Math.min(max, PREEMPTED_PAYLOAD_SIZE);
+		return max;
+	}
+	
+	void setPriority(int channel, int priority, int weight) {
+		if (writer==null) throw new IllegalStateException("channel priorities need a FlushPolicy");
+		if (weight<1) throw new IllegalArgumentException("weight must be at least 1");
+		writer.setPriority(channel, priority, weight);
+	}
+
+	void writePacketWithOneByte(int channel, int credit, int byteValue) throws IOException {
+		writePacket(channel, credit, new byte[] {(byte) byteValue}, 0, 1, FLAG_NULL);
+	}
+
 	void writePacket(int channel, int credit, int flags) throws IOException {
 		writePacket(channel, credit, null, 0, 0, flags);
 	}
 	
-	private void bind(int channel, boolean recurring) throws IOException {
+	private ChannelMetadata bind(int channel, boolean recurring) throws IOException {
 		// check the arguments and state
-		ChannelMetadata cmMeta = getCM(channel);
-
-		assert(Thread.holdsLock(mutex));
-		if (channelBound.get(channel)) throw new ChannelBindException();
-		if (cmMeta.state != STATE_UNBOUND) throw new IllegalStateException();
+		validChannel(channel);
+		assert(mutex.isHeldByCurrentThread());
+		if (getCM(channel)!=null) throw new ChannelBindException();
 		
+		if (channel>>>CM_PAGE_BITS>=cmTable.length) cmTable = Arrays.copyOf(cmTable, Math.max(cmTable.length<<1, (channel>>>CM_PAGE_BITS)+1));
+		ChannelMetadata[] page = cmTable[channel>>>CM_PAGE_BITS];
+		if (page==null) page = cmTable[channel>>>CM_PAGE_BITS] = new ChannelMetadata[1<<CM_PAGE_BITS];
+		ChannelMetadata cmMeta = cmFree.isEmpty()?new ChannelMetadata():cmFree.pop();
+		page[channel&((1<<CM_PAGE_BITS)-1)] = cmMeta;
 		
-		cmMeta.clear();
-		channelBound.set(channel);
 		cmMeta.setState(STATE_BOUND);
+		boundChannels++;
 		if (recurring) {
 			cmMeta.recurring = true;
 			cmMeta.setState(STATE_LISTENING);
 		}
+		return cmMeta;
 	}
 	
 	private void unbind(int channel) throws IOException {
 		ChannelMetadata cmMeta = getCM(channel);
 
-		assert(Thread.holdsLock(mutex));
+		assert(mutex.isHeldByCurrentThread());
 		if (cmMeta.state!=STATE_CHANNEL_CLOSED) throw new IllegalStateException();
 		
-		channelBound.clear(channel);
-		if (cmMeta.recurring) {
-			bind(channel, true);
-		} else {
-			cmMeta.clear();
+		// the closed Channel keeps its reference but never touches it again
+		cmTable[channel>>>CM_PAGE_BITS][channel&((1<<CM_PAGE_BITS)-1)] = null;
+		// whatever can still complete from what the channel has left does, the rest fails
+		PendingOperation<?> op;
+		while ((op=cmMeta.pending.poll())!=null) {
+			if (attempt(op)) continue;
+			op.failure = new IOException("Channel Closed");
+			dispatch(op);
 		}
+		boolean recurring = cmMeta.recurring;
+		cmMeta.clear();
+		if (cmFree.size()<CM_FREE_MAX) cmFree.push(cmMeta);
+		boundChannels--;
+		ephemeral.release(channel);
+		if (writer!=null) writer.setPriority(channel, 0, 1);
+		if (jmxName!=null) unregister(channel);
+		
+		if (recurring) bind(channel, true);
+	}
+	
+	// the free id the ephemeral range has held back longest, ids bound some other way since are dropped until they are unbound again
+	private int ephemeralChannel() throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		int channel;
+		while ((channel=ephemeral.poll())>=0) {
+			if (getCM(channel)==null) return channel;
+		}
+		throw new ChannelBindException("every ephemeral channel is bound");
 	}
 	
-	private Channel connect(int channel, int recvBufferSize, long timeout, boolean messageMode) throws IOException {
+	// unbinds a channel once it has closed, safe to call from both the closing thread and the Demultiplexer
+	void release(int channel) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
 		ChannelMetadata cmMeta = getCM(channel);
+		if (cmMeta!=null&&cmMeta.state==STATE_CHANNEL_CLOSED) unbind(channel);
+	}
+	
+	// the peer's SYN has been received and its window recorded as the credit
+	private void establish(int channel, ChannelMetadata cmMeta) {
+		assert(mutex.isHeldByCurrentThread());
+		if (cmMeta.messageMode) {
+			cmMeta.ptr = new DatagramPacketChannel(this, channel, cmMeta.recvBufferSize, cmMeta.credit, mutex);
+		} else {
+			boolean deflate = cmMeta.deflate&&(cmMeta.synOptions&SYN_DEFLATE)!=0;
+			cmMeta.ptr = new StreamChannel(this, channel, cmMeta.recvBufferSize, cmMeta.credit, mutex, deflate);
+		}
+		cmMeta.setState(STATE_ESTABLISHED);
+		if (jmxName!=null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(cmMeta.ptr.getMetrics(), objectName(channel));
+			} catch (JMException jme) {
+				if (DEBUG) jme.printStackTrace();
+			}
+		}
+	}
+	
+	private Channel connect(int channel, int service, int recvBufferSize, long timeout, boolean messageMode, boolean deflate) throws IOException {
 		validBufferSize(recvBufferSize);
 		if (timeout<0) throw new IllegalArgumentException("timeout cannot be negative");
+		if (service!=-1) validService(service);
+		else if (channel==EPHEMERAL_CHANNEL) throw new IllegalArgumentException("only a connect to a service can have an ephemeral channel");
 		
-		synchronized(mutex) {
+		mutex.lock();
+		try {
+			if (channel==EPHEMERAL_CHANNEL) channel = ephemeralChannel();
+			ChannelMetadata cmMeta = bind(channel, false);
 			try {
-				bind(channel, false);
 				cmMeta.setState(STATE_CONNECTING);
 				cmMeta.messageMode = messageMode;
+				cmMeta.recvBufferSize = recvBufferSize;
+				cmMeta.deflate = deflate;
+				cmMeta.service = service;
 				
-				// send synchronize
-				writePacket(channel, recvBufferSize, FLAG_SYN|FLAG_CLI|( messageMode?FLAG_MSG:FLAG_NULL ));
-				
-				// wait for response
 				final AtomicLong timer = new AtomicLong();
-				while (timer.get()<timeout && !cmMeta.nextPacketRead.compareAndSet(true, false)) linger(timeout, timer);
+				awaitCompactHeaders(channel, timeout, timer);
+				sendSyn(channel, cmMeta);
 				
-				// if timedout throw and error
-				if (timer.get()>timeout&&timeout>0) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
-					throw new ChannelTimeoutException();
-				}
+				// wait for the Demultiplexer to establish the channel when the response arrives
+				while (cmMeta.state==STATE_CONNECTING&&!cmMeta.reset&&!timedOut(timeout, timer)) linger(cmMeta.progressed, timeout, timer);
 				
-				if (cmMeta.reset) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
-					throw new ChannelResetException();
-				}
-				
-				if (messageMode) {
-					cmMeta.ptr = new DatagramPacketChannel(this, channel, recvBufferSize, cmMeta.credit, mutex);
-				} else {
-					cmMeta.ptr = new StreamChannel(this, channel, recvBufferSize, cmMeta.credit, mutex);
-				}
-				cmMeta.setState(STATE_ESTABLISHED);
+				if (cmMeta.reset) throw new ChannelResetException();
+				if (cmMeta.state!=STATE_ESTABLISHED) throw new ChannelTimeoutException();
 				
 				assert(cmMeta.ptr!=null); return cmMeta.ptr;
 			} finally {
-				mutex.notifyAll();
+				cmMeta.progressed.signalAll();
+				failedHandshake(channel, cmMeta);
+			}
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// the SYN goes out right away, the future completes once the Demultiplexer has the answer
+	private <T extends Channel> CompletableFuture<T> connectAsync(int id, int service, int recvBufferSize, long timeout, boolean messageMode, boolean deflate) throws IOException {
+		validBufferSize(recvBufferSize);
+		if (timeout<0) throw new IllegalArgumentException("timeout cannot be negative");
+		if (service!=-1) validService(service);
+		else if (id==EPHEMERAL_CHANNEL) throw new IllegalArgumentException("only a connect to a service can have an ephemeral channel");
+		
+		mutex.lock();
+		try {
+			final int channel = id==EPHEMERAL_CHANNEL?ephemeralChannel():id;
+			final ChannelMetadata cmMeta = bind(channel, false);
+			cmMeta.setState(STATE_CONNECTING);
+			cmMeta.messageMode = messageMode;
+			cmMeta.recvBufferSize = recvBufferSize;
+			cmMeta.deflate = deflate;
+			cmMeta.service = service;
+			try {
+				// only ever waits right after the Multiplexer was created
+				awaitCompactHeaders(channel, timeout, new AtomicLong());
+				sendSyn(channel, cmMeta);
+			} catch (IOException ioe) {
+				failedHandshake(channel, cmMeta);
+				throw ioe;
+			}
+			
+			return submit(cmMeta, new PendingOperation<T>(null) {
+				@SuppressWarnings("unchecked")
+				boolean attempt() throws IOException {
+					if (cmMeta.reset) throw new ChannelResetException();
+					if (state==STATE_CLOSED) throw new IOException("Multiplexer is closed");
+					if (cmMeta.state==STATE_CONNECTING) return false;
+					if (cmMeta.state!=STATE_ESTABLISHED) throw new ChannelResetException();
+					result = (T) cmMeta.ptr;
+					return true;
+				}
 				
-				// if this is true something has gone wrong
-				if (cmMeta.state!=STATE_ESTABLISHED) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
+				void abandon(IOException cause) {
+					super.abandon(cause);
+					failedHandshake(channel, cmMeta);
 				}
+			}, timeout);
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	private void sendSyn(int channel, ChannelMetadata cmMeta) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		
+		int flags = cmMeta.deflate?SYN_DEFLATE:0;
+		byte[] options = null;
+		if (cmMeta.service!=-1) options = new byte[] {(byte) (flags|SYN_SERVICE), (byte) (cmMeta.service>>>8), (byte) cmMeta.service};
+		else if (flags!=0) options = new byte[] {(byte) flags};
+		writePacket(channel, initialWindow(cmMeta.recvBufferSize, autoTuneWindows&&!cmMeta.messageMode), options, 0, options!=null?options.length:0, FLAG_SYN|FLAG_CLI|( cmMeta.messageMode?FLAG_MSG:FLAG_NULL ));
+	}
+	
+	// a connect or accept that did not establish its channel gives the channel up again
+	private void failedHandshake(int channel, ChannelMetadata cmMeta) {
+		assert(mutex.isHeldByCurrentThread());
+		
+		// if this is true something has gone wrong
+		if (cmMeta.state!=STATE_ESTABLISHED&&cmMeta.state!=STATE_UNBOUND) {
+			cmMeta.setState(STATE_CHANNEL_CLOSED);
+			try {
+				release(channel);
+			} catch (IOException ioe) {
+				if (DEBUG) ioe.printStackTrace();
 			}
 		}
 	}
 	
 	public void listen(int channel) throws IOException {
-		ChannelMetadata cmMeta = getCM(channel);
+		mutex.lock();
+		try {
+			ChannelMetadata cmMeta = bind(channel, false);
+			cmMeta.state = STATE_LISTENING;
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// a service, every SYN that names it is queued under the channel it came in on until accept takes it, the SYNs beyond backlog are reset
+	public void listen(int channel, int backlog) throws IOException {
+		validService(channel);
+		if (backlog<1) throw new IllegalArgumentException("backlog must be at least 1");
 		
-		synchronized(mutex) {
-			bind(channel, false);
+		mutex.lock();
+		try {
+			ChannelMetadata cmMeta = bind(channel, false);
 			cmMeta.state = STATE_LISTENING;
+			cmMeta.backlog = new ArrayDeque<Integer>(Math.min(backlog, 64));
+			cmMeta.backlogLimit = backlog;
+		} finally {
+			mutex.unlock();
 		}
 	}
 	
-	private Channel accept(int channel, int recvBufferSize, long timeout, boolean messageMode, boolean recurring) throws IOException {
-		ChannelMetadata cmMeta = getCM(channel);
+	private Channel accept(int channel, int recvBufferSize, long timeout, boolean messageMode, boolean recurring, boolean deflate) throws IOException {
 		validBufferSize(recvBufferSize);
 		if (timeout<0) throw new IllegalArgumentException();
 		
-		synchronized(mutex) {
-			try {
-				if (cmMeta.state!=STATE_LISTENING) {
-					bind(channel, recurring);
+		mutex.lock();
+		try {
+			ChannelMetadata cmMeta = getCM(channel);
+			if (cmMeta!=null&&cmMeta.backlog!=null) {
+				// the service itself stays listening, any number of threads can accept from it at once
+				final AtomicLong timer = new AtomicLong();
+				Channel ptr;
+				while ((ptr=takeQueued(cmMeta, recvBufferSize, messageMode, deflate))==null) {
+					if (timedOut(timeout, timer)) throw new ChannelTimeoutException();
+					linger(cmMeta.progressed, timeout, timer);
 				}
+				return ptr;
+			}
+			if (cmMeta==null||cmMeta.state!=STATE_LISTENING) {
+				cmMeta = bind(channel, recurring);
+			}
+			try {
 				cmMeta.setState(STATE_ACCEPTING);
 				cmMeta.messageMode = messageMode;
+				cmMeta.recvBufferSize = recvBufferSize;
+				cmMeta.deflate = deflate;
 				
+				// a SYN that arrived before accept was called is already waiting
 				final AtomicLong timer = new AtomicLong();
-				while (!cmMeta.nextPacketRead.compareAndSet(true, false)) linger(timeout, timer);
+				while (!cmMeta.synPending&&!cmMeta.reset&&!timedOut(timeout, timer)) linger(cmMeta.progressed, timeout, timer);
 				
-				// if timedout throw and error
-				if (timer.get()>timeout&&timeout>0) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
-					throw new ChannelTimeoutException();
-				}
+				if (cmMeta.reset) throw new ChannelResetException();
+				if (!cmMeta.synPending) throw new ChannelTimeoutException();
 				
-				if (cmMeta.reset) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
-					throw new ChannelResetException();
+				return answerSyn(channel, cmMeta);
+			} finally {
+				cmMeta.progressed.signalAll();
+				failedHandshake(channel, cmMeta);
+			}
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// the future completes as soon as a SYN arrives, the answer to it goes out from the Demultiplexer
+	private <T extends Channel> CompletableFuture<T> acceptAsync(final int channel, int recvBufferSize, long timeout, boolean messageMode, boolean recurring, boolean deflate) throws IOException {
+		validBufferSize(recvBufferSize);
+		if (timeout<0) throw new IllegalArgumentException();
+		
+		mutex.lock();
+		try {
+			ChannelMetadata bound = getCM(channel);
+			if (bound!=null&&bound.backlog!=null) {
+				final ChannelMetadata service = bound;
+				final int size = recvBufferSize;
+				final boolean mode = messageMode;
+				final boolean compress = deflate;
+				return submit(service, new PendingOperation<T>(null) {
+					@SuppressWarnings("unchecked")
+					boolean attempt() throws IOException {
+						if (state==STATE_CLOSED) throw new IOException("Multiplexer is closed");
+						result = (T) takeQueued(service, size, mode, compress);
+						return result!=null;
+					}
+				}, timeout);
+			}
+			if (bound==null||bound.state!=STATE_LISTENING) {
+				bound = bind(channel, recurring);
+			}
+			final ChannelMetadata cmMeta = bound;
+			cmMeta.setState(STATE_ACCEPTING);
+			cmMeta.messageMode = messageMode;
+			cmMeta.recvBufferSize = recvBufferSize;
+			cmMeta.deflate = deflate;
+			
+			return submit(cmMeta, new PendingOperation<T>(null) {
+				@SuppressWarnings("unchecked")
+				boolean attempt() throws IOException {
+					if (cmMeta.reset) throw new ChannelResetException();
+					if (state==STATE_CLOSED) throw new IOException("Multiplexer is closed");
+					if (!cmMeta.synPending) return false;
+					result = (T) answerSyn(channel, cmMeta);
+					return true;
 				}
 				
-				writePacket(channel, recvBufferSize, FLAG_SYN|( messageMode?FLAG_MSG:FLAG_NULL ));
-				
-				if (messageMode) {
-					cmMeta.ptr = new DatagramPacketChannel(this, channel, recvBufferSize, cmMeta.credit, mutex);
-				} else {
-					cmMeta.ptr = new StreamChannel(this, channel, recvBufferSize, cmMeta.credit, mutex);
+				void abandon(IOException cause) {
+					super.abandon(cause);
+					failedHandshake(channel, cmMeta);
 				}
-				cmMeta.setState(STATE_ESTABLISHED);
-				
-				assert(cmMeta.ptr!=null); return cmMeta.ptr;
+			}, timeout);
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// establishes the oldest connection in a service's backlog that still can be, null once there is none
+	private Channel takeQueued(ChannelMetadata service, int recvBufferSize, boolean messageMode, boolean deflate) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		
+		Integer channel;
+		while ((channel=service.backlog.poll())!=null) {
+			ChannelMetadata cmMeta = getCM(channel);
+			assert(cmMeta.state==STATE_QUEUED);
+			cmMeta.setState(STATE_ACCEPTING);
+			cmMeta.messageMode = messageMode;
+			cmMeta.recvBufferSize = recvBufferSize;
+			cmMeta.deflate = deflate;
+			try {
+				// reset by the peer while it waited, its connect has already given up
+				if (!cmMeta.reset) return answerSyn(channel, cmMeta);
+			} catch (ChannelResetException cre) {
+				// the other kind of channel, refused and the next one is tried
 			} finally {
-				mutex.notifyAll();
-				
-				// if this is true something has gone wrong
-				if (cmMeta.state!=STATE_ESTABLISHED) {
-					cmMeta.setState(STATE_CHANNEL_CLOSED);
-					unbind(channel);
-				}
+				failedHandshake(channel, cmMeta);
 			}
 		}
+		return null;
+	}
+	
+	// establishes the channel of an accept whose SYN has arrived and sends the answer
+	private Channel answerSyn(int channel, ChannelMetadata cmMeta) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		cmMeta.synPending = false;
+		
+		// near side type vs far side type and connect/accept mismatch
+		if (cmMeta.messageMode!=((cmMeta.synFlags&FLAG_MSG)!=0)||(cmMeta.synFlags&FLAG_CLI)==0) {
+			segregator.sendReset(channel);
+			throw new ChannelResetException();
+		}
+		
+		// the channel has to exist before the response goes out, the peer may send data right behind it
+		// options are only answered when both sides asked for them
+		establish(channel, cmMeta);
+		byte[] options = (cmMeta.deflate&&(cmMeta.synOptions&SYN_DEFLATE)!=0)?new byte[] {SYN_DEFLATE}:null;
+		writePacket(channel, initialWindow(cmMeta.recvBufferSize, autoTuneWindows&&!cmMeta.messageMode), options, 0, options!=null?options.length:0, FLAG_SYN|( cmMeta.messageMode?FLAG_MSG:FLAG_NULL ));
+		
+		assert(cmMeta.ptr!=null); return cmMeta.ptr;
+	}
+	
+	// completes the operation now if it can, otherwise it waits on its channel until the channel is woken, it times out or its future is cancelled
+	<T> CompletableFuture<T> submit(final ChannelMetadata cmMeta, final PendingOperation<T> op, long timeout) {
+		assert(mutex.isHeldByCurrentThread());
+		
+		op.future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable failure) {
+				// cancelled by the application, or by orTimeout and the like
+				if (failure!=null) withdraw(cmMeta, op, new IOException("cancelled"));
+			}
+		});
+		if (attempt(op)) return op.future;
+		cmMeta.pending.add(op);
+		if (timeout>0) {
+			op.timeout = getScheduler().schedule(new Runnable() {
+				public void run() {
+					withdraw(cmMeta, op, new ChannelTimeoutException());
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+		return op.future;
+	}
+	
+	// an operation that did part of its work outside of the mutex waits on its channel again for the rest, false if it was cancelled meanwhile
+	boolean resubmit(ChannelMetadata cmMeta, PendingOperation<?> op) {
+		mutex.lock();
+		try {
+			if (op.future.isDone()) return false;
+			if (!attempt(op)) cmMeta.pending.add(op);
+			return true;
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	private boolean attempt(PendingOperation<?> op) {
+		assert(mutex.isHeldByCurrentThread());
+		
+		if (op.future.isDone()) {
+			// cancelled before it could be withdrawn, it must not take any data or credit now
+			op.settle();
+			return true;
+		}
+		try {
+			if (!op.attempt()) return false;
+		} catch (IOException ioe) {
+			op.abandon(ioe);
+		}
+		dispatch(op);
+		return true;
+	}
+	
+	private void withdraw(ChannelMetadata cmMeta, PendingOperation<?> op, IOException cause) {
+		mutex.lock();
+		try {
+			if (!cmMeta.pending.remove(op)) return;
+			op.abandon(cause);
+			op.settle();
+			dispatch(op);
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	private void dispatch(PendingOperation<?> op) {
+		try {
+			completions.execute(op);
+		} catch (RejectedExecutionException ree) {
+			// the application shut its executor down, the operation still has to complete somewhere
+			op.run();
+		}
 	}
 	
 	class Demultiplexer implements Runnable {
 
+		// null when the frames are read by a MultiplexerEventLoopGroup instead of a dedicated thread
 		final Thread handle;
+		private FrameCodec rxCodec = FrameCodec.LEGACY;
+		private Checksum rxChecksum = rxCodec.newChecksum();
+		private final int[] fields = new int[4];
 		
-		public Demultiplexer() {
-			handle = new Thread(this);
-			handle.setName(Thread.currentThread().getName()+"segregator");
-			handle.setDaemon(true);
+		public Demultiplexer(boolean threaded, boolean virtual) {
+			if (!threaded) {
+				handle = null;
+				return;
+			}
+			handle = newThread(this, Thread.currentThread().getName()+"segregator", virtual);
 			handle.start();
 		}
 
 		@Override
 		public void run() {
 			try {
-				// read packet
-				CRC32 crc = new CRC32();
-				
 				while (!isClosed()) {
-					// 2B_len, 2B_channel, 3B_credit, 1B_flags, ...B_payload, 4B_crc
-					crc.reset();
-					input.readFully(recvBuffer, 0, 8);
+					if (transport.read(recvBuffer)<0) throw new EOFException();
+					decode();
+				}
+			} catch (IOException ioe) {
+				closeQuietly();
+			}
+		}
+		
+		// reads whatever a non-blocking transport has ready, returns false once the transport has reached its end
+		boolean readAvailable(int maxReads) throws IOException {
+			for (int i=0; i<maxReads; i++) {
+				int read = transport.read(recvBuffer);
+				if (read<0) return false;
+				if (read==0) break;
+				decode();
+			}
+			return true;
+		}
+		
+		boolean isAlive() {
+			return handle==null||handle.isAlive();
+		}
+		
+		// consumes every complete frame in recvBuffer, a partial frame stays behind until the rest of it is read
+		void decode() throws IOException {
+			int needed = 0;
+			// anything from the peer shows it is alive, a PONG stuck behind a busy link is no missed beat
+			if (heartbeat!=null) unanswered.set(0);
+			recvBuffer.flip();
+			try {
+				while (recvBuffer.hasRemaining()) {
+					// header, ...B_payload, 4B_crc
+					FrameCodec codec = rxCodec;
+					int start = recvBuffer.position();
+					int limit = recvBuffer.limit();
 					
 					// header fields
-					int len = (int) bytesToNumber(recvBuffer, 0, 2);
-					int channel = (int) bytesToNumber(recvBuffer, 2, 2);
-					int credit = (int) bytesToNumber(recvBuffer, 4, 3);
-					int flags = (int) bytesToNumber(recvBuffer, 7, 1);
-
-					// payload+crc
-					input.readFully(recvBuffer, 8, len+4);
-					long packetCRC = bytesToNumber(recvBuffer, 8+len, 4);
-
-					// verify header and payload with trailer
-					crc.update(recvBuffer, 0, 8+len);
-					long realCRC = crc.getValue();
-					if (packetCRC!=realCRC) throw new IOException("Malformed packet");
+					int header = codec.header(recvBuffer, start, limit, fields);
+					if (header==0) break;
+					int len = fields[FrameCodec.LENGTH];
+					if (len<0||len>codec.maxPayload) throw new IOException("Frame too large "+len);
+					int payload = start+header;
+					if (limit-start<header+len+codec.trailerLength) {
+						needed = header+len+codec.trailerLength;
+						break;
+					}
+					int channel = fields[FrameCodec.CHANNEL];
+					int credit = fields[FrameCodec.CREDIT];
+					int flags = fields[FrameCodec.FLAGS];
 
-					ChannelMetadata cmMeta = getCM(channel);
+					// verify header and payload with the trailer or batch checksum
+					try {
+						codec.verify(recvBuffer, start, header, len, flags, rxChecksum);
+					} catch (IOException ioe) {
+						metrics.integrityFailures.increment();
+						throw ioe;
+					}
+					metrics.framesReceived.increment();
+					metrics.bytesReceived.add(header+len+codec.trailerLength);
+					
+					recvBuffer.limit(payload+len).position(payload);
+					switch (flags) {
+					case FLAG_HELLO:
+						hello(recvBuffer);
+						break;
+					case FLAG_FORMAT:
+						if (agreedCodec==null) throw new IOException("format changed without a hello");
+						rxCodec = agreedCodec;
+						rxChecksum = rxCodec.newChecksum();
+						break;
+					case FLAG_SUM:
+						break;
+					case FLAG_PING:
+						byte[] clock = new byte[recvBuffer.remaining()];
+						recvBuffer.get(clock);
+						sendHeartbeat(FLAG_PONG, clock);
+						break;
+					case FLAG_PONG:
+						pong(recvBuffer);
+						break;
+					default:
+						process(channel, credit, flags, recvBuffer);
+					}
 					
+					recvBuffer.limit(limit).position(payload+len+codec.trailerLength);
+				}
+			} finally {
+				recvBuffer.compact();
+			}
+			
+			// the partial frame left behind can only be completed in a larger buffer
+			if (needed>recvBuffer.capacity()) {
+				ByteBuffer larger = transport.allocate(Math.max(Integer.highestOneBit(needed-1)<<1, INITIAL_RECV_BUFFER));
+				recvBuffer.flip();
+				larger.put(recvBuffer);
+				recvBuffer = larger;
+			}
+		}
+		
+		private void hello(ByteBuffer peerHello) throws IOException {
+			if (agreedCodec!=null) return;
+			sendHello();
+			agreedCodec = FrameCodec.negotiate(integrity, maxPayload, compactHeaders, peerHello);
+			sendFormat(agreedCodec);
+			mutex.lock();
+			try {
+				// connects to channels only the agreed format can carry
+				changed.signalAll();
+			} finally {
+				mutex.unlock();
+			}
+			startHeartbeat();
+		}
+		
+		void process(int channel, int credit, int flags, ByteBuffer payload) throws IOException {
 //					static final int FLAG_NULL = 0x0;
 //					static final int FLAG_SYN = 0x1;
 //					static final int FLAG_CLI = 0x2;
@@ -324,109 +1130,136 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 //					static final int FLAG_ICL = 0x40;
 //					static final int FLAG_IOCL = FLAG_ICL|FLAG_OCL;
 //					static final int FLAG_MCL = 0x80;
+			
+			// counted once the mutex is released
+			ChannelMetrics counted = null;
+			int received = payload.remaining();
+			
+			// process packet, nothing in here waits for the application so one channel cannot hold up the others
+			mutex.lock();
+			try {
+				ChannelMetadata cmMeta = getCM(channel);
+				try {
+					if (cmMeta==null) {
+						if ((flags&~FLAG_MSG)==(FLAG_SYN|FLAG_CLI)&&enqueue(channel, credit, flags, payload)) return;
+						if (flags!=FLAG_RST) sendReset(channel);
+						return;
+					}
 					
-					// process packet
-					synchronized(mutex) {
-						try {
+					switch (flags) {
+					case FLAG_NULL:
+						break;
+					
+					case FLAG_SYN:
+					case FLAG_SYN|FLAG_CLI:
+					case FLAG_SYN|FLAG_MSG:
+					case FLAG_SYN|FLAG_CLI|FLAG_MSG:
+						if (cmMeta.backlog!=null||payload.hasRemaining()&&(payload.get(payload.position())&SYN_SERVICE)!=0) {
+							// straight to a service, or for a service but on a channel this side already uses, refused without touching the channel
+							sendReset(channel);
+						} else if (cmMeta.state==STATE_LISTENING||cmMeta.state==STATE_ACCEPTING) {
+							// held for accept, which checks it against its own side
+							cmMeta.synPending = true;
+							cmMeta.synFlags = flags;
+							cmMeta.synOptions = payload.hasRemaining()?payload.get(payload.position())&0xff:0;
+							cmMeta.credit = credit;
+						} else if (cmMeta.state==STATE_CONNECTING
+								&&cmMeta.messageMode==((flags&FLAG_MSG)!=0)
+								&&(flags&FLAG_CLI)==0) {
+							// established here rather than by the connecting thread so that data right behind the SYN has somewhere to go
+							cmMeta.synOptions = payload.hasRemaining()?payload.get(payload.position())&0xff:0;
 							cmMeta.credit = credit;
-							
-							if (!channelBound.get(channel)) {
-								sendReset(channel);
-								continue;
-							}
-							
-							switch (flags) {
-							case FLAG_NULL:
-								break;
-							
-							case FLAG_SYN:
-							case FLAG_SYN|FLAG_CLI:
-							case FLAG_SYN|FLAG_MSG:
-							case FLAG_SYN|FLAG_CLI|FLAG_MSG:
-								// user has not yet called accept
-								if (cmMeta.state == STATE_LISTENING) {
-									linger();
-								}
-								// near side type vs far side type
-								if (cmMeta.messageMode != ((flags&FLAG_MSG)!=0) ) {
-									resetChannel(channel);
-									sendReset(channel);
-								}
-								// check for connect/accept mismatch
-								if ( !((cmMeta.state==STATE_ACCEPTING&&(flags&FLAG_CLI)!=0) 
-										|| (cmMeta.state==STATE_CONNECTING&&(flags&FLAG_CLI)==0)) ) {
-									resetChannel(channel);
-									sendReset(channel);
-								}
-								
-								break;
-							
-							case FLAG_RST:
-								resetChannel(channel);
-								break;
-								
-							case FLAG_KAL:
-								break;
-								
-							case FLAG_OCL:
-								cmMeta.nextPacketRead.set(true);
-								mutex.notifyAll();
-								cmMeta.ptr.dealWithFarsideOutputClosing();
-								break;
-								
-							case FLAG_ICL:
-								cmMeta.nextPacketRead.set(true);
-								mutex.notifyAll();
-								cmMeta.ptr.dealWithFarsideInputClosing();
-								break;
-							
-							case FLAG_IOCL:
-								cmMeta.nextPacketRead.set(true);
-								mutex.notifyAll();
-								cmMeta.ptr.dealWithFarsideClosing();
-								break;
-								
-							case FLAG_MCL:
-								home.close();
-								break;
-								
-							default:
-								if (DEBUG) System.err.println("unknown flag combination");
-								sendReset(channel);
-								break;
-							}
-							
-							if (cmMeta.state==STATE_ESTABLISHED) {
-								cmMeta.ptr.feed(recvBuffer, 8, len);
-								cmMeta.ptr.depositCredit(credit);
-							}
-							
-							
-							
-							if ((cmMeta.state&LINGERING_STATES)!=0) {
-								cmMeta.nextPacketRead.set(true);
-								mutex.notifyAll();
-								while ((cmMeta.state&LINGERING_STATES) != 0) linger();
-							}
-							
-							if (cmMeta.state==STATE_CHANNEL_CLOSED) {
-								unbind(channel);
-							}
-							
-						} finally {
-							mutex.notifyAll();
+							establish(channel, cmMeta);
+						} else {
+							// near side type vs far side type, connect/accept mismatch or a SYN on an established channel
+							resetChannel(channel);
+							sendReset(channel);
 						}
+						break;
+					
+					case FLAG_RST:
+						resetChannel(channel);
+						break;
+						
+					case FLAG_OCL:
+						cmMeta.nextPacketRead.set(true);
+						// nothing is established here to close, a listener keeps waiting and the peer is told
+						if (cmMeta.ptr==null) sendReset(channel);
+						else cmMeta.ptr.dealWithFarsideOutputClosing();
+						break;
+						
+					case FLAG_ICL:
+						cmMeta.nextPacketRead.set(true);
+						if (cmMeta.ptr==null) sendReset(channel);
+						else cmMeta.ptr.dealWithFarsideInputClosing();
+						break;
+					
+					case FLAG_IOCL:
+						cmMeta.nextPacketRead.set(true);
+						// either the answer to our own close or both sides closed at once, the closing thread finishes it
+						if (cmMeta.state==STATE_CHANNEL_IN_CLOSING_METHOD) break;
+						if (cmMeta.ptr!=null) cmMeta.ptr.dealWithFarsideClosing();
+						break;
+						
+					case FLAG_MCL:
+						home.close();
+						break;
+						
+					default:
+						if (DEBUG) System.err.println("unknown flag combination");
+						sendReset(channel);
+						break;
+					}
+					
+					if (cmMeta.state==STATE_ESTABLISHED&&(flags&FLAG_SYN)==0) {
+						cmMeta.ptr.feed(payload);
+						cmMeta.ptr.depositCredit(credit);
+						counted = cmMeta.ptr.getMetrics();
 					}
+					
+					release(channel);
+					
+				} finally {
+					// data and credit have already woken whoever waits for them, anything else may concern every waiter of the channel
+					if (cmMeta!=null&&flags!=FLAG_NULL) cmMeta.wakeAll();
+					else if (cmMeta!=null) cmMeta.attemptPending();
 				}
-			} catch (IOException ioe) {
-				closeQuietly();
+			} finally {
+				mutex.unlock();
+			}
+			if (counted!=null) counted.received(received);
+		}
+		
+		// a SYN naming a service with room in its backlog binds the channel it came in on and waits there, nothing is answered until accept
+		private boolean enqueue(int channel, int credit, int flags, ByteBuffer payload) throws IOException {
+			if (payload.remaining()<3) return false;
+			int options = payload.get(payload.position())&0xff;
+			if ((options&SYN_SERVICE)==0) return false;
+			int id = payload.getShort(payload.position()+1)&0xffff;
+			ChannelMetadata service = getCM(id);
+			if (service==null||service.backlog==null) return false;
+			if (service.backlog.size()>=service.backlogLimit) {
+				metrics.refusedConnections.increment();
+				return false;
 			}
+			
+			ChannelMetadata cmMeta = bind(channel, false);
+			cmMeta.setState(STATE_QUEUED);
+			cmMeta.synPending = true;
+			cmMeta.synFlags = flags;
+			cmMeta.synOptions = options;
+			cmMeta.credit = credit;
+			cmMeta.service = id;
+			service.backlog.add(channel);
+			service.progressed.signalAll();
+			service.attemptAccepts();
+			return true;
 		}
 		
 		void resetChannel(int channel) {
 			ChannelMetadata cmMeta = getCM(channel);
 			
-			assert(Thread.holdsLock(mutex));
+			assert(mutex.isHeldByCurrentThread());
 			cmMeta.reset = true;
 			if (cmMeta.ptr!=null&&cmMeta.state!=STATE_CHANNEL_IN_CLOSING_METHOD) cmMeta.ptr.closeQuietly();
 		}
@@ -434,62 +1267,144 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 		void sendReset(int channel) throws IOException {
 			validChannel(channel);
 			
-			assert(Thread.holdsLock(mutex));
+			assert(mutex.isHeldByCurrentThread());
 			writePacket(channel, 0, FLAG_RST);
 		}
 		
 	}
 
 	public boolean isClosed() {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			return state==STATE_CLOSED;
+		} finally {
+			mutex.unlock();
 		}
 	}
 
-	private void closeQuietly() {
-		synchronized(mutex) {
+	boolean readAvailable(int maxReads) throws IOException {
+		return segregator.readAvailable(maxReads);
+	}
+
+	void closeQuietly() {
+		mutex.lock();
+		try {
 			state = STATE_CLOSED;
+			wakeAll();
+		} finally {
+			mutex.unlock();
 		}
 		
-		try {input.close();} catch (IOException e){}
-		try {output.close();} catch (IOException e){}
+		if (heartbeat!=null) heartbeat.cancel(false);
+		if (jmxName!=null) unregister(-1);
+		if (writer!=null) writer.close(false);
+		try {transport.close();} catch (IOException e){}
+		leavePool();
 	}
 	
 	public void close() throws IOException {
-		synchronized(mutex) {
+		mutex.lock();
+		try {
 			//final AtomicLong timer = new AtomicLong();
-			while (state==STATE_CLOSING) linger();
+			while (state==STATE_CLOSING) linger(changed);
 			
 			if (state==STATE_CLOSED) return;
 			state = STATE_CLOSING;
+		} finally {
+			mutex.unlock();
+		}
+		
+		if (heartbeat!=null) heartbeat.cancel(false);
+		if (jmxName!=null) unregister(-1);
+		
+		// let queued frames reach the wire first, but never wait on the writer while holding the mutex its failure path takes
+		if (writer!=null) writer.close(!mutex.isHeldByCurrentThread());
+		
+		mutex.lock();
+		try {
 			try {
 
 				
 				
 			} finally {
-				mutex.notifyAll();
 				state = STATE_CLOSED;
+				wakeAll();
+				leavePool();
 				
-				IOException ioe = new IOException();
-				try {input.close();} catch (IOException e){ioe.addSuppressed(e);}
-				try {output.close();} catch (IOException e){ioe.addSuppressed(e);}
-				if (ioe.getSuppressed().length>0) throw ioe;
+				transport.close();
+			}
+		} finally {
+			mutex.unlock();
+		}
+	}
+	
+	// every waiting thread, the connection is going away
+	private void wakeAll() {
+		assert(mutex.isHeldByCurrentThread());
+		changed.signalAll();
+		for (ChannelMetadata[] page: cmTable) {
+			if (page==null) continue;
+			for (ChannelMetadata cmMeta: page) {
+				if (cmMeta!=null) cmMeta.wakeAll();
 			}
 		}
 	}
 	
 	class ChannelMetadata {
+		// data to read, credit to write with, and everything else: handshakes, closes and resets
+		final Condition readable = mutex.newCondition();
+		final Condition writable = mutex.newCondition();
+		final Condition progressed = mutex.newCondition();
+		// asynchronous operations are tried again wherever the conditions are signalled for them
+		final ArrayDeque<PendingOperation<?>> pending = new ArrayDeque<PendingOperation<?>>();
 		final AtomicBoolean nextPacketRead = new AtomicBoolean();
 		Channel ptr;
 		long state = STATE_UNBOUND;
 		boolean messageMode;
 		boolean reset;
 		boolean recurring;
+		boolean synPending;
+		int synFlags;
+		int synOptions;
+		boolean deflate;
 		int credit;
+		int recvBufferSize;
+		// the service a connect names, -1 for a plain channel
+		int service = -1;
+		// channels queued on a service for accept, null unless the channel was listened on with a backlog
+		ArrayDeque<Integer> backlog;
+		int backlogLimit;
 		
 		void setState(long newState) {
 			state = newState;
-			mutex.notifyAll();
+			progressed.signalAll();
+		}
+		
+		void wakeAll() {
+			readable.signalAll();
+			writable.signalAll();
+			progressed.signalAll();
+			attemptPending();
+		}
+		
+		// in the order they were submitted, those that still cannot complete go back in that order
+		void attemptPending() {
+			for (int i=pending.size(); i>0; i--) {
+				PendingOperation<?> op = pending.poll();
+				if (op==null) break;
+				if (!attempt(op)) pending.add(op);
+			}
+		}
+		
+		// a queued connection is for one accept only, the others waiting on the service are not tried for it
+		void attemptAccepts() {
+			PendingOperation<?> op;
+			while (!backlog.isEmpty()&&(op=pending.poll())!=null) {
+				if (!attempt(op)) {
+					pending.addFirst(op);
+					break;
+				}
+			}
 		}
 		
 		void clear() {
@@ -499,39 +1414,42 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 			messageMode = false;
 			reset = false;
 			recurring = false;
+			synPending = false;
+			synFlags = 0;
+			synOptions = 0;
+			deflate = false;
 			credit = 0;
+			recvBufferSize = 0;
+			service = -1;
+			backlog = null;
+			backlogLimit = 0;
 		}
 	}
 
+	// null if the channel is not bound
 	ChannelMetadata getCM(int index) {
-		
-		ChannelMetadata cm = cmMeta[index];
-		if (cm==null) throw new NullPointerException();
-		return cm;
+		if (index>>>CM_PAGE_BITS>=cmTable.length) return null;
+		ChannelMetadata[] page = cmTable[index>>>CM_PAGE_BITS];
+		return page==null?null:page[index&((1<<CM_PAGE_BITS)-1)];
 	}
 
-	// read/write numbers
-	private static long bytesToNumber(byte[] num, int off, int len) {
-		if (off+len > num.length) throw new IndexOutOfBoundsException("byte array len="+num.length+" off="+off+" len="+len);
-		if (len < 1 || len > 8) throw new IndexOutOfBoundsException("Improper length "+len);
-		long out = 0;
-		for (int i=0; i<len; i++) {
-			out += num[off+i]&0xFF;
-			if (i<len-1) out <<= 8;
-		}
-		return out;
+	private void validChannel(int channel) {
+		if (!(0<=channel&&channel<=MAX_CONNECTION)) throw new IllegalArgumentException("invalid channel "+channel);
 	}
-
-	private static void numberToBytes(long num, byte[] b, int off, int len) {
-		if (off+len > b.length) throw new IndexOutOfBoundsException("byte array len="+b.length+" off="+off+" len="+len);
-		if (len < 1 || len > 8) throw new IndexOutOfBoundsException("Improper length "+len);
-		for (int i=0; i<len; i++) {
-			b[off+i] = (byte) ((num>>>(len-1-i)*8)&0xFF);
-		}
+	
+	// named in the 2 byte option of a SYN, like a port
+	private void validService(int service) {
+		if (!(0<=service&&service<=MAX_CHANNEL)) throw new IllegalArgumentException("invalid service "+service);
 	}
 	
-	private void validChannel(int channel) {
-		if (!(0<=channel&&channel<cmMeta.length)) throw new IllegalArgumentException("invalid channel "+channel);
+	// the first frame of a channel above MAX_CHANNEL waits until this side's frames are in the compact format that can carry its id
+	private void awaitCompactHeaders(int channel, long timeout, final AtomicLong timer) throws IOException {
+		assert(mutex.isHeldByCurrentThread());
+		if (channel<=MAX_CHANNEL) return;
+		if (!compactHeaders) throw new ChannelBindException("channel "+channel+" needs compact headers");
+		while ((agreedCodec==null||txCodec!=agreedCodec)&&!timedOut(timeout, timer)) linger(changed, timeout, timer);
+		if (agreedCodec==null||txCodec!=agreedCodec) throw new ChannelTimeoutException();
+		if (!txCodec.compact) throw new ChannelBindException("channel "+channel+" needs compact headers, the peer did not agree to them");
 	}
 	
 	private static void validBufferSize(int recvBufferSize) {
@@ -539,85 +1457,166 @@ public class Multiplexer implements ClientMultiplexer, ServerMultiplexer {
 		if (recvBufferSize>MAX_BUFFER_SIZE) throw new IllegalArgumentException("max recvBufferSize "+MAX_BUFFER_SIZE);
 	}
 
-	void linger(long waitForMillis, final AtomicLong timer) throws IOException {
+	// 0 waits forever, like Object.wait
+	private static boolean timedOut(long timeout, final AtomicLong timer) {
+		return timeout!=0&&timer.get()>=timeout;
+	}
+	
+	// waits for until to be signalled, the Multiplexer closing always signals it
+	void linger(Condition until, long waitForMillis, final AtomicLong timer) throws IOException {
 		if ((waitForMillis|timer.get())<0) throw new IllegalArgumentException(); 
-		if (timer.get()>waitForMillis) return;
+		if (timedOut(waitForMillis, timer)) return;
 		if (waitForMillis!=0) waitForMillis -= timer.get();
-		if (isClosed()||!segregator.handle.isAlive()) throw new IOException("Multiplexer is closed or Demultiplexer has died");
+		if (isClosed()||!segregator.isAlive()) throw new IOException("Multiplexer is closed or Demultiplexer has died");
 		long beg = System.nanoTime();
 		try {
-			mutex.wait(waitForMillis);
+			if (waitForMillis==0) until.await();
+			else until.await(waitForMillis, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException ie) {
 			Thread.currentThread().interrupt();
 		}
-		timer.addAndGet((System.nanoTime()-beg)/1000000);
+		long waited = System.nanoTime()-beg;
+		metrics.lingerNanos.add(waited);
+		timer.addAndGet(waited/1000000);
 	}
 
-	void linger() throws IOException {
-		linger(0, new AtomicLong());
+	void linger(Condition until) throws IOException {
+		linger(until, 0, new AtomicLong());
 	}
 	
 	// acceptDatagramPacketChannel
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel,
 			int bufferSize) throws IOException {
-		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, false);
+		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, false, false);
 	}
 	
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel,
 			int bufferSize, boolean recurring) throws IOException {
-		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, recurring);
+		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, recurring, false);
 	}
 	
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel,
 			int bufferSize, long timeout) throws IOException {
-		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, false);
+		return (DatagramPacketChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, false, false);
 	}
 	
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel,
 			int bufferSize, long timeout, boolean recurring) throws IOException {
-		return (DatagramPacketChannel) accept(channel, bufferSize, timeout, true, recurring);
+		return (DatagramPacketChannel) accept(channel, bufferSize, timeout, true, recurring, false);
 	}
 
 	// acceptStreamChannel
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize)
 			throws IOException {
-		return (StreamChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, false, false);
+		return (StreamChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, false, false, false);
 	}
 
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize,
 			boolean recurring) throws IOException {
-		return (StreamChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, false, false);
+		return (StreamChannel) accept(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, false, false, false);
 	}
 
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize,
 			long timeout) throws IOException {
-		return (StreamChannel) accept(channel, bufferSize, timeout, false, false);
+		return (StreamChannel) accept(channel, bufferSize, timeout, false, false, false);
 	}
 	
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize,
 			long timeout, boolean recurring) throws IOException {
-		return (StreamChannel) accept(channel, bufferSize, timeout, false, recurring);
+		return (StreamChannel) accept(channel, bufferSize, timeout, false, recurring, false);
+	}
+	
+	// the payload is deflated if the connecting side asked for it as well
+	public StreamChannel acceptStreamChannel(int channel, int bufferSize,
+			long timeout, boolean recurring, boolean deflate) throws IOException {
+		return (StreamChannel) accept(channel, bufferSize, timeout, false, recurring, deflate);
 	}
 
 	// connetDatagramChannel
 	public DatagramPacketChannel connectDatagramPacketChannel(int channel,
 			int bufferSize) throws IOException {
-		return (DatagramPacketChannel) connect(channel, bufferSize, DEFAULT_CONNECTION_TIMEOUT, true);
+		return (DatagramPacketChannel) connect(channel, -1, bufferSize, DEFAULT_CONNECTION_TIMEOUT, true, false);
 	}
 	
 	public DatagramPacketChannel connectDatagramPacketChannel(int channel,
 			int recvBufferSize, long timeout) throws IOException {
-		return (DatagramPacketChannel) connect(channel, recvBufferSize, timeout, true);
+		return (DatagramPacketChannel) connect(channel, -1, recvBufferSize, timeout, true, false);
 	}
 
 	// connectStreamChannel
 	public StreamChannel connectStreamChannel(int channel, int bufferSize)
 			throws IOException {
-		return (StreamChannel) connect(channel, bufferSize, DEFAULT_CONNECTION_TIMEOUT, false);
+		return (StreamChannel) connect(channel, -1, bufferSize, DEFAULT_CONNECTION_TIMEOUT, false, false);
 	}
 	
 	public StreamChannel connectStreamChannel(int channel, int recvBufferSize, long timeout) throws IOException {
-		return (StreamChannel) connect(channel, recvBufferSize, timeout, false);
+		return (StreamChannel) connect(channel, -1, recvBufferSize, timeout, false, false);
+	}
+	
+	// the payload is deflated if the accepting side asks for it as well
+	public StreamChannel connectStreamChannel(int channel, int recvBufferSize, long timeout, boolean deflate) throws IOException {
+		return (StreamChannel) connect(channel, -1, recvBufferSize, timeout, false, deflate);
+	}
+
+	// to a service the other side listens on with a backlog, channel is only this connection's own id and may be EPHEMERAL_CHANNEL
+	public DatagramPacketChannel connectDatagramPacketChannel(int channel, int service,
+			int recvBufferSize, long timeout) throws IOException {
+		return (DatagramPacketChannel) connect(channel, service, recvBufferSize, timeout, true, false);
+	}
+	
+	public StreamChannel connectStreamChannel(int channel, int service, int recvBufferSize, long timeout, boolean deflate) throws IOException {
+		return (StreamChannel) connect(channel, service, recvBufferSize, timeout, false, deflate);
+	}
+
+	// asynchronous connects and accepts, the futures complete on the completion executor of the MultiplexerConfig
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel,
+			int bufferSize) throws IOException {
+		return connectAsync(channel, -1, bufferSize, DEFAULT_CONNECTION_TIMEOUT, true, false);
+	}
+	
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel,
+			int recvBufferSize, long timeout) throws IOException {
+		return connectAsync(channel, -1, recvBufferSize, timeout, true, false);
+	}
+	
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int bufferSize)
+			throws IOException {
+		return connectAsync(channel, -1, bufferSize, DEFAULT_CONNECTION_TIMEOUT, false, false);
+	}
+	
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int recvBufferSize,
+			long timeout, boolean deflate) throws IOException {
+		return connectAsync(channel, -1, recvBufferSize, timeout, false, deflate);
+	}
+	
+	public CompletableFuture<DatagramPacketChannel> connectDatagramPacketChannelAsync(int channel, int service,
+			int recvBufferSize, long timeout) throws IOException {
+		return connectAsync(channel, service, recvBufferSize, timeout, true, false);
+	}
+	
+	public CompletableFuture<StreamChannel> connectStreamChannelAsync(int channel, int service, int recvBufferSize,
+			long timeout, boolean deflate) throws IOException {
+		return connectAsync(channel, service, recvBufferSize, timeout, false, deflate);
+	}
+	
+	public CompletableFuture<DatagramPacketChannel> acceptDatagramPacketChannelAsync(int channel,
+			int bufferSize) throws IOException {
+		return acceptAsync(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, true, false, false);
+	}
+	
+	public CompletableFuture<DatagramPacketChannel> acceptDatagramPacketChannelAsync(int channel,
+			int bufferSize, long timeout, boolean recurring) throws IOException {
+		return acceptAsync(channel, bufferSize, timeout, true, recurring, false);
+	}
+	
+	public CompletableFuture<StreamChannel> acceptStreamChannelAsync(int channel, int bufferSize)
+			throws IOException {
+		return acceptAsync(channel, bufferSize, DEFAULT_ACCEPT_TIMEOUT, false, false, false);
+	}
+	
+	public CompletableFuture<StreamChannel> acceptStreamChannelAsync(int channel, int bufferSize,
+			long timeout, boolean recurring, boolean deflate) throws IOException {
+		return acceptAsync(channel, bufferSize, timeout, false, recurring, deflate);
 	}
 
 }
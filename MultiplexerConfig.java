@@ -0,0 +1,186 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+public class MultiplexerConfig {
+
+	private FlushPolicy flushPolicy = null;
+	private boolean directBuffers = false;
+	private boolean directWindows = false;
+	private boolean pooledWindows = false;
+	private FrameIntegrity frameIntegrity = null;
+	private int maxPayloadSize = Multiplexer.MAX_PAYLOAD_SIZE;
+	private boolean compactHeaders = false;
+	private CreditPolicy creditPolicy = CreditPolicy.halfWindow();
+	private long heartbeatMillis = 0;
+	private int missedBeats = 3;
+	private boolean autoTuneWindows = false;
+	private String jmxName = null;
+	private boolean virtualThreads = false;
+	private Executor completionExecutor = ForkJoinPool.commonPool();
+	private int firstEphemeralChannel = Multiplexer.DEFAULT_FIRST_EPHEMERAL_CHANNEL;
+	private int lastEphemeralChannel = Multiplexer.MAX_CHANNEL;
+	
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+	
+	// null writes every frame from the calling thread, anything else hands frames to a writer thread that coalesces them
+	// Channel.setPriority needs the writer thread, with null frames go out in the order they were written
+	public MultiplexerConfig setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+		return this;
+	}
+	
+	public boolean isDirectBuffers() {
+		return directBuffers;
+	}
+	
+	// frames read from a ByteChannel land in direct buffers, has no effect on stream transports
+	public MultiplexerConfig setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+		return this;
+	}
+	
+	public boolean isDirectWindows() {
+		return directWindows;
+	}
+	
+	// the receive window of every channel is kept off the heap, for many channels with large windows whose data is only passing through
+	public MultiplexerConfig setDirectWindows(boolean directWindows) {
+		this.directWindows = directWindows;
+		return this;
+	}
+	
+	public boolean isPooledWindows() {
+		return pooledWindows;
+	}
+	
+	// windows start small and grow with what is buffered in them, their storage is shared with channels that come later
+	// and kept, up to 64 MiB, until the last Multiplexer with pooled windows closes, for many short lived channels
+	public MultiplexerConfig setPooledWindows(boolean pooledWindows) {
+		this.pooledWindows = pooledWindows;
+		return this;
+	}
+	
+	public FrameIntegrity getFrameIntegrity() {
+		return frameIntegrity;
+	}
+	
+	// null has no preference and takes whatever the peer asks for, the original CRC32 format if neither side asks
+	public MultiplexerConfig setFrameIntegrity(FrameIntegrity frameIntegrity) {
+		this.frameIntegrity = frameIntegrity;
+		return this;
+	}
+	
+	public int getMaxPayloadSize() {
+		return maxPayloadSize;
+	}
+	
+	// frames above MAX_PAYLOAD_SIZE need a wider length field, they are only used if the peer allows them as well
+	public MultiplexerConfig setMaxPayloadSize(int maxPayloadSize) {
+		if (maxPayloadSize<Multiplexer.MAX_PAYLOAD_SIZE) throw new IllegalArgumentException("min maxPayloadSize "+Multiplexer.MAX_PAYLOAD_SIZE);
+		if (maxPayloadSize>Multiplexer.MAX_BUFFER_SIZE) throw new IllegalArgumentException("max maxPayloadSize "+Multiplexer.MAX_BUFFER_SIZE);
+		this.maxPayloadSize = maxPayloadSize;
+		return this;
+	}
+	
+	public boolean isCompactHeaders() {
+		return compactHeaders;
+	}
+	
+	// varint length and channel with flags and credit left out when they are 0, only used if the peer asks for them as well
+	public MultiplexerConfig setCompactHeaders(boolean compactHeaders) {
+		this.compactHeaders = compactHeaders;
+		return this;
+	}
+	
+	public CreditPolicy getCreditPolicy() {
+		return creditPolicy;
+	}
+	
+	// when the receiving side of each channel tells the sender about the room it has made
+	public MultiplexerConfig setCreditPolicy(CreditPolicy creditPolicy) {
+		if (creditPolicy==null) throw new NullPointerException();
+		this.creditPolicy = creditPolicy;
+		return this;
+	}
+	
+	public long getHeartbeatMillis() {
+		return heartbeatMillis;
+	}
+	
+	public int getMissedBeats() {
+		return missedBeats;
+	}
+	
+	// 0 sends no heartbeats, otherwise the connection is closed once missedBeats heartbeats in a row go unanswered
+	public MultiplexerConfig setHeartbeat(long heartbeatMillis, int missedBeats) {
+		if (heartbeatMillis<0) throw new IllegalArgumentException("heartbeatMillis cannot be negative");
+		if (missedBeats<1) throw new IllegalArgumentException("missedBeats must be at least 1");
+		this.heartbeatMillis = heartbeatMillis;
+		this.missedBeats = missedBeats;
+		return this;
+	}
+	
+	public boolean isAutoTuneWindows() {
+		return autoTuneWindows;
+	}
+	
+	// stream windows start at 64 KiB and follow twice what the application reads per round trip, up to the recvBufferSize asked for
+	public MultiplexerConfig setAutoTuneWindows(boolean autoTuneWindows) {
+		this.autoTuneWindows = autoTuneWindows;
+		return this;
+	}
+	
+	public String getJmxName() {
+		return jmxName;
+	}
+	
+	// registers the metrics of the Multiplexer and of each established channel as MBeans under this name
+	public MultiplexerConfig setJmxName(String jmxName) {
+		this.jmxName = jmxName;
+		return this;
+	}
+	
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	// the Demultiplexer and the writer thread run as virtual threads, for applications that serve each channel from one of their own
+	public MultiplexerConfig setVirtualThreads(boolean virtualThreads) {
+		if (virtualThreads&&!Multiplexer.supportsVirtualThreads()) throw new UnsupportedOperationException("virtual threads need Java 21");
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+	
+	public Executor getCompletionExecutor() {
+		return completionExecutor;
+	}
+	
+	// where the futures of asynchronous connects, accepts, reads and writes complete, never the Demultiplexer's own thread
+	public MultiplexerConfig setCompletionExecutor(Executor completionExecutor) {
+		if (completionExecutor==null) throw new NullPointerException();
+		this.completionExecutor = completionExecutor;
+		return this;
+	}
+	
+	public int getFirstEphemeralChannel() {
+		return firstEphemeralChannel;
+	}
+	
+	public int getLastEphemeralChannel() {
+		return lastEphemeralChannel;
+	}
+	
+	// where connects to EPHEMERAL_CHANNEL take their ids from, two peers that both connect that way need ranges that do not overlap
+	// ids above 0xffff reach up to 0xffffff but need compact headers
+	public MultiplexerConfig setEphemeralChannels(int first, int last) {
+		if (first<0||last>Multiplexer.MAX_CONNECTION||first>last) throw new IllegalArgumentException("invalid range "+first+"-"+last);
+		this.firstEphemeralChannel = first;
+		this.lastEphemeralChannel = last;
+		return this;
+	}
+	
+}
@@ -0,0 +1,157 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// reads and demultiplexes the frames of many connections on a few threads instead of one thread per Multiplexer
+public class MultiplexerEventLoopGroup implements Closeable {
+
+	// reads per connection per wakeup, so that one busy connection cannot starve the rest of its loop
+	private static final int MAX_READS_PER_WAKEUP = 16;
+	
+	private final EventLoop[] loop;
+	private final AtomicInteger next = new AtomicInteger();
+	
+	private volatile boolean closed = false;
+	
+	public MultiplexerEventLoopGroup() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public MultiplexerEventLoopGroup(int threads) throws IOException {
+		if (threads<1) throw new IllegalArgumentException("threads must be at least 1");
+		loop = new EventLoop[threads];
+		try {
+			for (int i=0; i<threads; i++) {
+				loop[i] = new EventLoop(i);
+			}
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+	}
+	
+	public Multiplexer register(SocketChannel channel, int... prePasvOpen) throws IOException {
+		return register(channel, new MultiplexerConfig(), prePasvOpen);
+	}
+	
+	// the channel is switched to non-blocking mode and belongs to the returned Multiplexer from now on
+	public Multiplexer register(SocketChannel channel, MultiplexerConfig config, int... prePasvOpen) throws IOException {
+		if (closed) throw new IOException("MultiplexerEventLoopGroup Closed");
+		channel.configureBlocking(false);
+		ByteChannelTransport transport = new ByteChannelTransport(channel, config.isDirectBuffers());
+		Multiplexer home = new Multiplexer(transport, config, false, prePasvOpen);
+		loop[(next.getAndIncrement()&0x7fffffff)%loop.length].register(channel, home, transport);
+		return home;
+	}
+	
+	public int getThreadCount() {
+		return loop.length;
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	// stops the loops and closes every Multiplexer that is still registered
+	@Override
+	public void close() {
+		closed = true;
+		for (int i=0; i<loop.length; i++) {
+			if (loop[i]!=null) loop[i].selector.wakeup();
+		}
+	}
+	
+	private class EventLoop implements Runnable {
+		
+		final Thread handle;
+		final Selector selector;
+		// the channel, its Multiplexer and its transport, the last two are attached to the channel's key
+		final ConcurrentLinkedQueue<Object[]> pending = new ConcurrentLinkedQueue<Object[]>();
+		
+		EventLoop(int index) throws IOException {
+			selector = Selector.open();
+			handle = new Thread(this);
+			handle.setName("multiplexer-eventloop-"+index);
+			handle.setDaemon(true);
+			handle.start();
+		}
+		
+		// SelectableChannel.register blocks while the selector is selecting, so the loop registers it itself
+		void register(SocketChannel channel, Multiplexer home, ByteChannelTransport transport) {
+			pending.add(new Object[] {channel, home, transport});
+			selector.wakeup();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					
+					Object[] entry;
+					while ((entry=pending.poll())!=null) {
+						SocketChannel channel = (SocketChannel) entry[0];
+						Multiplexer home = (Multiplexer) entry[1];
+						try {
+							// writes made on this thread from now on queue what the socket does not take instead of waiting
+							((ByteChannelTransport) entry[2]).attach(channel.register(selector, SelectionKey.OP_READ, entry));
+						} catch (IOException ioe) {
+							home.closeQuietly();
+						}
+					}
+					
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						
+						Object[] registered = (Object[]) key.attachment();
+						Multiplexer home = (Multiplexer) registered[1];
+						try {
+							if (key.isValid()&&key.isWritable()) ((ByteChannelTransport) registered[2]).flush();
+							if (!key.isValid()||key.isReadable()&&!home.readAvailable(MAX_READS_PER_WAKEUP)) {
+								key.cancel();
+								home.closeQuietly();
+							}
+						} catch (IOException ioe) {
+							key.cancel();
+							home.closeQuietly();
+						} catch (RuntimeException re) {
+							// whatever one peer sent costs only its own connection, never the rest of the loop
+							key.cancel();
+							home.closeQuietly();
+						}
+					}
+				}
+			} catch (IOException ioe) {
+				// the selector itself failed, nothing on this loop can be read anymore
+			} catch (ClosedSelectorException cse) {
+			} finally {
+				shutdown();
+			}
+		}
+		
+		private void shutdown() {
+			try {
+				for (SelectionKey key: new ArrayList<SelectionKey>(selector.keys())) {
+					((Multiplexer) ((Object[]) key.attachment())[1]).closeQuietly();
+				}
+			} catch (ClosedSelectorException cse) {
+			}
+			Object[] entry;
+			while ((entry=pending.poll())!=null) ((Multiplexer) entry[1]).closeQuietly();
+			try {selector.close();} catch (IOException e){}
+		}
+		
+	}
+	
+}
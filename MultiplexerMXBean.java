@@ -0,0 +1,28 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+public interface MultiplexerMXBean {
+
+	// frames and bytes as they cross the wire, headers and trailers included
+	long getFramesSent();
+
+	long getBytesSent();
+
+	long getFramesReceived();
+
+	long getBytesReceived();
+
+	// time application threads spent waiting for credit, data or a peer's answer
+	long getLingerMillis();
+
+	long getCreditStarvedWrites();
+
+	long getIntegrityFailures();
+
+	// SYNs for a service whose backlog was full
+	long getRefusedConnections();
+
+	int getBoundChannels();
+
+	long getRttMicros();
+
+}
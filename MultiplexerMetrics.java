@@ -0,0 +1,86 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// striped counters so the threads writing frames never contend on them, the gauges are read when asked for
+public class MultiplexerMetrics implements MultiplexerMXBean {
+
+	private final Multiplexer home;
+
+	final LongAdder framesSent = new LongAdder();
+	final LongAdder bytesSent = new LongAdder();
+	final LongAdder framesReceived = new LongAdder();
+	final LongAdder bytesReceived = new LongAdder();
+	final LongAdder lingerNanos = new LongAdder();
+	final LongAdder creditStarvedWrites = new LongAdder();
+	final LongAdder integrityFailures = new LongAdder();
+	final LongAdder refusedConnections = new LongAdder();
+
+	MultiplexerMetrics(Multiplexer home) {
+		this.home = home;
+	}
+
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getFramesReceived() {
+		return framesReceived.sum();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	public long getLingerMillis() {
+		return lingerNanos.sum()/1000000;
+	}
+
+	public long getCreditStarvedWrites() {
+		return creditStarvedWrites.sum();
+	}
+
+	public long getIntegrityFailures() {
+		return integrityFailures.sum();
+	}
+
+	public long getRefusedConnections() {
+		return refusedConnections.sum();
+	}
+
+	public int getBoundChannels() {
+		return home.getBoundChannels();
+	}
+
+	public long getRttMicros() {
+		return home.getRttMicros();
+	}
+
+	// every value at once keyed by the getter's name without "get", channels under "channel.<id>."
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		snapshot.put("FramesSent", getFramesSent());
+		snapshot.put("BytesSent", getBytesSent());
+		snapshot.put("FramesReceived", getFramesReceived());
+		snapshot.put("BytesReceived", getBytesReceived());
+		snapshot.put("LingerMillis", getLingerMillis());
+		snapshot.put("CreditStarvedWrites", getCreditStarvedWrites());
+		snapshot.put("IntegrityFailures", getIntegrityFailures());
+		snapshot.put("RefusedConnections", getRefusedConnections());
+		snapshot.put("BoundChannels", (long) getBoundChannels());
+		snapshot.put("RttMicros", getRttMicros());
+		for (Channel ptr: home.getChannels()) {
+			for (Map.Entry<String, Long> e: ptr.getMetrics().snapshot().entrySet()) {
+				snapshot.put("channel."+ptr.getChannelID()+"."+e.getKey(), e.getValue());
+			}
+		}
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// an asynchronous connect, accept, read or write, retried under the mutex whenever its channel is woken instead of by a thread parked in linger
+abstract class PendingOperation<T> implements Runnable {
+
+	final CompletableFuture<T> future = new CompletableFuture<T>();
+	// set while the operation is outstanding, null if a channel may have any number of them
+	private final AtomicBoolean exclusive;
+	// goes off on the shared scheduler, null if the operation waits for as long as it takes
+	ScheduledFuture<?> timeout;
+	private boolean settled = false;
+	T result;
+	IOException failure;
+
+	PendingOperation(AtomicBoolean exclusive) {
+		this.exclusive = exclusive;
+	}
+
+	// under the mutex and never waits, true once there is a result, throws if there never will be
+	abstract boolean attempt() throws IOException;
+
+	// under the mutex, given up on because of its timeout, its caller or the failure attempt threw
+	void abandon(IOException cause) {
+		failure = cause;
+	}
+
+	// on the completion executor without the mutex, false if the operation went back to wait on its channel
+	boolean finish() throws IOException {
+		return true;
+	}
+
+	// the channel may take the next operation of this kind before the future's dependents run
+	void settle() {
+		if (settled) return;
+		settled = true;
+		if (timeout!=null) timeout.cancel(false);
+		if (exclusive!=null) exclusive.set(false);
+	}
+
+	public void run() {
+		try {
+			if (failure==null&&!finish()) return;
+		} catch (IOException ioe) {
+			failure = ioe;
+		}
+		settle();
+		if (failure!=null) future.completeExceptionally(failure);
+		else future.complete(result);
+	}
+
+}
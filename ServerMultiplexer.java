@@ -1,6 +1,7 @@
 package com.github.ezekielnewren.net.multiplexer;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface ServerMultiplexer extends CoreMultiplexer {
 	
@@ -9,11 +10,19 @@ public interface ServerMultiplexer extends CoreMultiplexer {
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel, int bufferSize, long timeout) throws IOException;
 	public DatagramPacketChannel acceptDatagramPacketChannel(int channel, int bufferSize) throws IOException;
 	
+	public StreamChannel acceptStreamChannel(int channel, int bufferSize, long timeout, boolean recurring, boolean deflate) throws IOException;
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize, long timeout, boolean recurring) throws IOException;
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize, boolean recurring) throws IOException;
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize, long timeout) throws IOException;
 	public StreamChannel acceptStreamChannel(int channel, int bufferSize) throws IOException;
 	
+	public CompletableFuture<DatagramPacketChannel> acceptDatagramPacketChannelAsync(int channel, int bufferSize, long timeout, boolean recurring) throws IOException;
+	public CompletableFuture<DatagramPacketChannel> acceptDatagramPacketChannelAsync(int channel, int bufferSize) throws IOException;
+	
+	public CompletableFuture<StreamChannel> acceptStreamChannelAsync(int channel, int bufferSize, long timeout, boolean recurring, boolean deflate) throws IOException;
+	public CompletableFuture<StreamChannel> acceptStreamChannelAsync(int channel, int bufferSize) throws IOException;
+	
+	public void listen(int channel, int backlog) throws IOException;
 	public void listen(int channel) throws IOException;
 	
 }
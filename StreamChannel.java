@@ -1,19 +1,37 @@
 package com.github.ezekielnewren.net.multiplexer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class StreamChannel extends Channel {
 
+	// deflated channels keep compressed bytes in the window so credit is counted in what actually crosses the wire
+	private static final int DEFLATE_CHUNK = 0x4000;
+	
 	final ChannelInputStream input;
 	final ChannelOutputStream output;
+	private final boolean deflated;
 	
-	StreamChannel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final Object mutex) {
-		super(inst, channel, recvBufferSize, sendBufferSize, mutex);
+	StreamChannel(Multiplexer inst, int channel, int recvBufferSize, int sendBufferSize, final ReentrantLock mutex, boolean deflated) {
+		super(inst, channel, recvBufferSize, sendBufferSize, mutex, inst.autoTuneWindows);
+		this.deflated = deflated;
 		input = new ChannelInputStream();
 		output = new ChannelOutputStream();
 	}
+	
+	public boolean isDeflated() {
+		return deflated;
+	}
 
 	public InputStream getInputStream() {
 		return input;
@@ -23,101 +41,350 @@ public class StreamChannel extends Channel {
 		return output;
 	}
 	
+	// completes with what one read of the InputStream would return, -1 once the peer has closed its output
+	public CompletableFuture<Integer> readAsync(final byte[] b, final int off, final int len) {
+		if (off<0||len<0||len>b.length-off) throw new IndexOutOfBoundsException();
+		if (!reading.compareAndSet(false, true)) throw new ReadPendingException();
+		return submit(new PendingOperation<Integer>(reading) {
+			boolean attempt() throws IOException {
+				// a blocking read that is already waiting goes first
+				if (!input.lock.tryLock()) return false;
+				try {
+					if (localInputClosed) throw new IOException("StreamChannel Closed");
+					// inflating is left to finish, here it is only decided whether there is anything to inflate
+					if (deflated) return len==0||input.isInflatable();
+					int read = input.readAvailable(b, off, len);
+					if (read==0&&len>0) return false;
+					result = read;
+					return true;
+				} finally {
+					input.lock.unlock();
+				}
+			}
+			
+			boolean finish() throws IOException {
+				if (!deflated) return true;
+				int read;
+				input.lock.lock();
+				try {
+					if (localInputClosed) throw new IOException("StreamChannel Closed");
+					read = input.inflateAvailable(b, off, len);
+				} finally {
+					input.lock.unlock();
+				}
+				result = read;
+				// a blocking read took it in the meantime
+				return read!=0||len==0||!home.resubmit(cmMeta, this);
+			}
+		});
+	}
+	
+	// completes once all of it has been handed to the transport, b must not change until then
+	// blocking writes that come after it wait until it has settled, so the frames of the two never interleave
+	public CompletableFuture<Void> writeAsync(byte[] b, int off, int len) {
+		if (off<0||len<0||len>b.length-off) throw new IndexOutOfBoundsException();
+		if (!writing.compareAndSet(false, true)) throw new WritePendingException();
+		Runnable turn = new Runnable() {
+			public void run() {
+				output.giveTurn(this);
+			}
+		};
+		// a blocking write already under way finishes first
+		output.lock.lock();
+		try {
+			if (deflated&&len>0&&!localOutputClosed) {
+				// compressing never has to wait, only sending what it produced does
+				b = output.compress(b, off, len);
+				off = 0;
+				len = b.length;
+			}
+			if (len==0) {
+				writing.set(false);
+				return CompletableFuture.completedFuture(null);
+			}
+			output.takeTurn(turn);
+		} finally {
+			output.lock.unlock();
+		}
+		return writePacketAsync(b, off, len, false, turn);
+	}
+	
 	class ChannelInputStream extends InputStream {
 
+		// one reader at a time, the inflater and the window position are not shared
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Inflater inflater = deflated?new Inflater():null;
+		private final byte[] compressed = deflated?new byte[DEFLATE_CHUNK]:null;
+		// the last inflate filled the whole buffer, the inflater may hold more output without needing input
+		private boolean filled = false;
+		
 		@Override
-		public synchronized int available() throws IOException {
-			if (localInputClosed) throw new IOException("StreamChannel Closed");
-			return window.available();
+		public int available() throws IOException {
+			lock.lock();
+			try {
+				if (localInputClosed) throw new IOException("StreamChannel Closed");
+				// how much a deflated window inflates to is unknown until it is read
+				if (deflated) return 0;
+				return window.available();
+			} finally {
+				lock.unlock();
+			}
 		}
 		
 		@Override
-		public synchronized long skip(long skip) throws IOException {
-			if (localInputClosed) throw new IOException("StreamChannel Closed");
-			return window.skip(skip);
+		public long skip(long skip) throws IOException {
+			lock.lock();
+			try {
+				if (localInputClosed) throw new IOException("StreamChannel Closed");
+				if (deflated) return super.skip(skip);
+				return window.skip(skip);
+			} finally {
+				lock.unlock();
+			}
 		}
 		
 		@Override
-		public synchronized int read() throws IOException {
-			if (localInputClosed) throw new IOException("StreamChannel Closed");
-			synchronized(mutex) {
+		public int read() throws IOException {
+			lock.lock();
+			try {
+				if (localInputClosed) throw new IOException("StreamChannel Closed");
+				if (deflated) {
+					byte[] b = new byte[1];
+					return read(b, 0, 1)<0?-1:b[0]&0xff;
+				}
+				mutex.lock();
 				try {
+					// never inside the window, the Demultiplexer could not feed it while the mutex is held
+					while (window.available()==0) {
+						if (remoteOutputClosed) return -1;
+						home.linger(cmMeta.readable);
+					}
 					int read = window.read();
 					if (read<0) return read;
 					incRead(1);
 					flushRead();
 					return read;
 				} finally {
-					mutex.notifyAll();
+					mutex.unlock();
 				}
+			} finally {
+				lock.unlock();
 			}
 		}
 		
 		@Override
-		public synchronized int read(byte[] b, int off, int len) throws IOException {
-			if (localInputClosed) throw new IOException("StreamChannel Closed");
-			synchronized(mutex) {
+		public int read(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				if (localInputClosed) throw new IOException("StreamChannel Closed");
+				if (deflated) {
+					int read;
+					while ((read=inflateAvailable(b, off, len))==0&&len>0) awaitReadable();
+					return read;
+				}
+				mutex.lock();
 				try {
-					while (window.available()==0) home.linger();
-					int read = window.read(b, off, len);
-					if (read<0) return read;
-					incRead(read);
-					flushRead();
+					int read;
+					while ((read=readAvailable(b, off, len))==0&&len>0) home.linger(cmMeta.readable);
 					return read;
 				} finally {
-					mutex.notifyAll();
+					mutex.unlock();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		// 0 if nothing has arrived yet, -1 once the peer has closed its output and all of it was read
+		int readAvailable(byte[] b, int off, int len) throws IOException {
+			assert(mutex.isHeldByCurrentThread());
+			if (len==0) return 0;
+			
+			if (window.available()==0) return remoteOutputClosed?-1:0;
+			int read = window.read(b, off, len);
+			if (read<0) return read;
+			incRead(read);
+			flushRead();
+			return read;
+		}
+		
+		// like readAvailable but inflated, the mutex is only held to take the compressed bytes out of the window
+		int inflateAvailable(byte[] b, int off, int len) throws IOException {
+			assert(lock.isHeldByCurrentThread()&&!mutex.isHeldByCurrentThread());
+			if (len==0) return 0;
+			
+			try {
+				int inflated;
+				while ((inflated=inflater.inflate(b, off, len))==0) {
+					if (!inflater.needsInput()) throw new IOException("corrupt deflate stream");
+					filled = false;
+					
+					// everything received so far has been inflated, the credit is returned for the compressed bytes
+					int read;
+					mutex.lock();
+					try {
+						read = readAvailable(compressed, 0, compressed.length);
+					} finally {
+						mutex.unlock();
+					}
+					if (read<=0) return read;
+					inflater.setInput(compressed, 0, read);
 				}
+				filled = inflated==len;
+				return inflated;
+			} catch (DataFormatException dfe) {
+				throw new IOException("corrupt deflate stream", dfe);
+			}
+		}
+		
+		// under both locks, inflateAvailable would not return 0
+		boolean isInflatable() throws IOException {
+			assert(lock.isHeldByCurrentThread()&&mutex.isHeldByCurrentThread());
+			return filled||!inflater.needsInput()||window.available()>0||remoteOutputClosed;
+		}
+		
+		private void awaitReadable() throws IOException {
+			mutex.lock();
+			try {
+				while (window.available()==0&&!remoteOutputClosed) home.linger(cmMeta.readable);
+			} finally {
+				mutex.unlock();
 			}
 		}
 		
 		@Override
 		public void close() throws IOException {
 			closeInput();
+			if (deflated) {
+				lock.lock();
+				try {
+					inflater.end();
+				} finally {
+					lock.unlock();
+				}
+			}
 		}
 		
 	}
 
 	class ChannelOutputStream extends OutputStream {
 
+		// fastest level, every write is sync flushed so it reaches the peer without waiting for more
+		private final Deflater deflater = deflated?new Deflater(Deflater.BEST_SPEED, false):null;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final byte[] compressed = deflated?new byte[DEFLATE_CHUNK]:null;
+		// held by an asynchronous write from when it is queued until it settles, only ever taken with lock held
+		// its own lock is never held while waiting for another, so the write can give it back under the mutex
+		private final ReentrantLock turnLock = new ReentrantLock();
+		private final Condition turnFree = turnLock.newCondition();
+		private Object turn = null;
+		
+		void takeTurn(Object owner) {
+			assert(lock.isHeldByCurrentThread());
+			turnLock.lock();
+			try {
+				turn = owner;
+			} finally {
+				turnLock.unlock();
+			}
+		}
+		
+		void giveTurn(Object owner) {
+			turnLock.lock();
+			try {
+				if (turn!=owner) return;
+				turn = null;
+				turnFree.signalAll();
+			} finally {
+				turnLock.unlock();
+			}
+		}
+		
+		private void awaitTurn() {
+			assert(lock.isHeldByCurrentThread());
+			turnLock.lock();
+			try {
+				while (turn!=null) turnFree.awaitUninterruptibly();
+			} finally {
+				turnLock.unlock();
+			}
+		}
+		
+		// the stream's own lock keeps this channel's frames in order, the mutex is only taken to withdraw credit
 		@Override
-		public synchronized void write(int b) throws IOException {
-			if (localOutputClosed) throw new IOException("StreamChannel Closed");
-			synchronized(mutex) {
-				try {
-					while (getCredit()==0) home.linger();
-					
-					writePacketWithOneByte(b);
-					
-				} finally {
-					mutex.notifyAll();
+		public void write(int b) throws IOException {
+			lock.lock();
+			try {
+				awaitTurn();
+				if (localOutputClosed) throw new IOException("StreamChannel Closed");
+				if (deflated) {
+					deflate(new byte[] {(byte) b}, 0, 1);
+					return;
 				}
+				writePacketWithOneByte(b);
+			} finally {
+				lock.unlock();
 			}
 		}
 		
 		@Override
-		public synchronized void write(byte[] b, int off, int len) throws IOException {
-			if (localOutputClosed) throw new IOException("StreamChannel Closed");
-			synchronized(mutex) {
-				try {
-					int total = 0;
-					while (total<len) {
-						int write = 0;
-						while (( write=Math.min(getCredit(), Math.min(Multiplexer.MAX_PAYLOAD_SIZE, len-total)) )==0) home.linger();
-						
-						writePacket(b, off+total, write);
-						
-						total += write;
-					}
-				} finally {
-					mutex.notifyAll();
+		public void write(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				awaitTurn();
+				if (localOutputClosed) throw new IOException("StreamChannel Closed");
+				if (deflated) {
+					deflate(b, off, len);
+					return;
 				}
+				send(b, off, len);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void send(byte[] b, int off, int len) throws IOException {
+			int total = 0;
+			while (total<len) {
+				total += writePacket(b, off+total, Math.min(home.getFrameSize(getPriority()), len-total), false);
 			}
 		}
 		
+		private void deflate(byte[] b, int off, int len) throws IOException {
+			if (len==0) return;
+			deflater.setInput(b, off, len);
+			int out;
+			do {
+				out = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+				send(compressed, 0, out);
+			} while (out==compressed.length||!deflater.needsInput());
+		}
+		
+		// deflate without sending, for writes that send it later
+		byte[] compress(byte[] b, int off, int len) {
+			assert(lock.isHeldByCurrentThread());
+			
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+			deflater.setInput(b, off, len);
+			int out;
+			do {
+				out = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+				deflated.write(compressed, 0, out);
+			} while (out==compressed.length||!deflater.needsInput());
+			return deflated.toByteArray();
+		}
 		
 		@Override
 		public void close() throws IOException {
 			closeOutput();
+			if (deflated) {
+				lock.lock();
+				try {
+					deflater.end();
+				} finally {
+					lock.unlock();
+				}
+			}
 		}
 		
 		
@@ -0,0 +1,56 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+class StreamTransport extends Transport {
+
+	private final DataInputStream input;
+	private final OutputStream output;
+	
+	StreamTransport(InputStream is, OutputStream os) {
+		input = (is instanceof DataInputStream)?(DataInputStream)is:new DataInputStream(is);
+		// header, payload and trailer of a frame leave in one write instead of three
+		output = new BufferedOutputStream(os, 1<<16);
+	}
+	
+	@Override
+	int read(ByteBuffer dst) throws IOException {
+		if (!dst.hasRemaining()) return 0;
+		int read = input.read(dst.array(), dst.arrayOffset()+dst.position(), dst.remaining());
+		if (read>0) dst.position(dst.position()+read);
+		return read;
+	}
+	
+	@Override
+	void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		for (int i=offset; i<offset+length; i++) {
+			ByteBuffer src = srcs[i];
+			if (src.hasArray()) {
+				output.write(src.array(), src.arrayOffset()+src.position(), src.remaining());
+				src.position(src.limit());
+			} else {
+				while (src.hasRemaining()) output.write(src.get());
+			}
+		}
+		output.flush();
+	}
+	
+	@Override
+	ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocate(capacity);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		IOException ioe = new IOException();
+		try {input.close();} catch (IOException e){ioe.addSuppressed(e);}
+		try {output.close();} catch (IOException e){ioe.addSuppressed(e);}
+		if (ioe.getSuppressed().length>0) throw ioe;
+	}
+	
+}
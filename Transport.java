@@ -0,0 +1,27 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// the byte pipe a Multiplexer frames its traffic over
+abstract class Transport implements Closeable {
+
+	// reads into dst like ReadableByteChannel.read, -1 at the end of the stream and 0 only if non-blocking
+	abstract int read(ByteBuffer dst) throws IOException;
+	
+	// puts everything remaining in srcs on the wire, in order, before returning
+	abstract void write(ByteBuffer[] srcs, int offset, int length) throws IOException;
+	
+	// buffer the Demultiplexer reads frames into
+	abstract ByteBuffer allocate(int capacity);
+	
+	void write(ByteBuffer[] srcs) throws IOException {
+		write(srcs, 0, srcs.length);
+	}
+	
+	// for callers that hold no lock a write could be waiting on, returns once a transport that queues writes has room again
+	void awaitRoom() throws IOException {
+	}
+	
+}
@@ -0,0 +1,104 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// storage for the windows of every Multiplexer by power of two size class, a channel that closes leaves its window to the next one
+abstract class WindowPool<T> {
+
+	static final int MIN_CLASS = 6;
+	static final int MAX_CLASS = 24;
+	// a window starts at most this large and grows one size class at a time as data accumulates in it
+	static final int INITIAL_SIZE = 4096;
+	// what each pool keeps for later, anything given back beyond it or while no Multiplexer uses the pool is left to the collector
+	static final long MAX_POOLED = 64<<20;
+
+	static final WindowPool<byte[]> HEAP = new WindowPool<byte[]>() {
+		byte[] allocate(int size) {
+			return new byte[size];
+		}
+	};
+
+	static final WindowPool<ByteBuffer> DIRECT = new WindowPool<ByteBuffer>() {
+		ByteBuffer allocate(int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock();
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ArrayDeque<T>[] classes = new ArrayDeque[MAX_CLASS+1];
+	private long pooled = 0;
+	// the Multiplexers with pooled windows from here, the last one to close empties the pool
+	private int users = 0;
+
+	abstract T allocate(int size);
+
+	// the smallest size class that holds size bytes
+	static int sizeClass(int size) {
+		return Math.max(1<<MIN_CLASS, Integer.highestOneBit(Math.max(size, 1)-1)<<1);
+	}
+
+	void join() {
+		lock.lock();
+		try {
+			users++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void leave() {
+		lock.lock();
+		try {
+			if (--users>0) return;
+			Arrays.fill(classes, null);
+			pooled = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getPooled() {
+		lock.lock();
+		try {
+			return pooled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// size is a size class, those above MAX_CLASS are never kept
+	T take(int size) {
+		int c = Integer.numberOfTrailingZeros(size);
+		if (c>MAX_CLASS) return allocate(size);
+		lock.lock();
+		try {
+			T storage = classes[c]!=null?classes[c].poll():null;
+			if (storage!=null) {
+				pooled -= size;
+				return storage;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return allocate(size);
+	}
+
+	void give(T storage, int size) {
+		int c = Integer.numberOfTrailingZeros(size);
+		if (c>MAX_CLASS) return;
+		lock.lock();
+		try {
+			if (users==0||pooled+size>MAX_POOLED) return;
+			if (classes[c]==null) classes[c] = new ArrayDeque<T>();
+			classes[c].push(storage);
+			pooled += size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a burst of connects to one service over an in-memory pipe, accepted from its backlog and closed again
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcceptBacklogBenchmark {
+
+	static final int SERVICE = 0;
+	static final int WINDOW = 4096;
+
+	@Param({"1", "64", "512"})
+	public int burst;
+
+	// a backlog smaller than the burst refuses the rest of it
+	@Param({"64", "1024"})
+	public int backlog;
+
+	// connections established and refused, the plain score counts bursts
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Connections {
+		public long established;
+		public long refused;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			established = 0;
+			refused = 0;
+		}
+	}
+
+	private Multiplexer client;
+	private Multiplexer server;
+	private StreamChannel[] open;
+
+	@Setup
+	public void setup() throws IOException {
+		ByteArrayCircularBuffer up = new ByteArrayCircularBuffer(MemoryPipe.PIPE_SIZE);
+		ByteArrayCircularBuffer down = new ByteArrayCircularBuffer(MemoryPipe.PIPE_SIZE);
+		client = new Multiplexer(down.getInputStream(), up.getOutputStream());
+		server = new Multiplexer(up.getInputStream(), down.getOutputStream());
+		server.listen(SERVICE, backlog);
+		open = new StreamChannel[burst];
+
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) server.acceptStreamChannel(SERVICE, WINDOW);
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.close();
+		server.close();
+	}
+
+	@Benchmark
+	public void connectBurst(Connections connections) throws IOException, InterruptedException {
+		List<CompletableFuture<StreamChannel>> connects = new ArrayList<CompletableFuture<StreamChannel>>(burst);
+		for (int i=0; i<burst; i++) connects.add(client.connectStreamChannelAsync(Multiplexer.EPHEMERAL_CHANNEL, SERVICE, WINDOW, Multiplexer.DEFAULT_CONNECTION_TIMEOUT, false));
+		for (int i=0; i<burst; i++) {
+			try {
+				open[i] = connects.get(i).get();
+				connections.established++;
+			} catch (ExecutionException ee) {
+				open[i] = null;
+				connections.refused++;
+			}
+		}
+		for (int i=0; i<burst; i++) {
+			if (open[i]!=null) open[i].close();
+		}
+	}
+
+}
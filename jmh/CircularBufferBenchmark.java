@@ -0,0 +1,109 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one writer and one reader on the same buffer, each only moves what is there so neither can block when the other stops
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircularBufferBenchmark {
+
+	@Param({"65536", "1048576"})
+	public int capacity;
+
+	@Param({"64", "4096"})
+	public int chunk;
+
+	// the ring off the heap, as a channel's window is with MultiplexerConfig.setDirectWindows
+	@Param({"false", "true"})
+	public boolean direct;
+
+	// bytes actually moved, the plain score also counts the polls that found nothing to do
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Moved {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	private CircularBuffer cb;
+	private byte[] src;
+	private byte[] dst;
+
+	@Setup
+	public void setup() {
+		cb = direct?new DirectCircularBuffer(capacity):new ByteArrayCircularBuffer(capacity);
+		src = new byte[chunk];
+		dst = new byte[chunk];
+	}
+
+	@Benchmark
+	@Group("singleByte")
+	@GroupThreads(1)
+	public void writeByte(Moved moved) throws IOException {
+		if (cb.free()==0) return;
+		cb.write(0x5a);
+		moved.bytes++;
+	}
+
+	@Benchmark
+	@Group("singleByte")
+	@GroupThreads(1)
+	public int readByte(Moved moved) throws IOException {
+		if (cb.available()==0) return -1;
+		moved.bytes++;
+		return cb.read();
+	}
+
+	@Benchmark
+	@Group("bulk")
+	@GroupThreads(1)
+	public void writeBulk(Moved moved) throws IOException {
+		int write = Math.min(cb.free(), chunk);
+		if (write>0) cb.write(src, 0, write);
+		moved.bytes += write;
+	}
+
+	@Benchmark
+	@Group("bulk")
+	@GroupThreads(1)
+	public void readBulk(Moved moved) throws IOException {
+		int read = Math.min(cb.available(), chunk);
+		if (read>0) cb.read(dst, 0, read);
+		moved.bytes += read;
+	}
+
+	// the same thread on both ends, the cost of the locks without anyone contending for them
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public int writeThenRead() throws IOException {
+		cb.write(src, 0, chunk);
+		return cb.read(dst, 0, chunk);
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// creating and closing a Multiplexer listening on a handful of channels, run with -prof gc for what each one allocates
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+
+	@Param({"0", "16"})
+	public int listening;
+
+	private ScriptedTransport transport;
+	private MultiplexerConfig config;
+	private int[] channels;
+
+	@Setup
+	public void setup() {
+		// nothing is ever read so one transport can be shared and no reader threads are started
+		transport = new ScriptedTransport();
+		config = new MultiplexerConfig();
+		channels = new int[listening];
+		for (int i=0; i<listening; i++) channels[i] = i;
+	}
+
+	@Benchmark
+	public Multiplexer construct() throws IOException {
+		Multiplexer mux = new Multiplexer(transport, config, false, channels);
+		mux.close();
+		return mux;
+	}
+
+}
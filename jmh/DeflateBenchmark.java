@@ -0,0 +1,92 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 64 KiB of JSON log lines per write over loopback TCP, through a plain and a deflated StreamChannel
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeflateBenchmark {
+
+	static final int WRITE = 1<<16;
+
+	@Param({"false", "true"})
+	public boolean deflate;
+
+	// what actually crossed the wire, the plain score counts writes of text
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Wire {
+		public long wireBytes;
+		private long before;
+
+		@Setup(Level.Iteration)
+		public void begin(DeflateBenchmark benchmark) {
+			before = benchmark.pair.client.getMetrics().getBytesSent();
+		}
+
+		@TearDown(Level.Iteration)
+		public void end(DeflateBenchmark benchmark) {
+			wireBytes = benchmark.pair.client.getMetrics().getBytesSent()-before;
+		}
+	}
+
+	private LoopbackPair pair;
+	private OutputStream os;
+	private byte[] text;
+	private int off = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Random random = new Random(0);
+		String[] level = {"INFO", "INFO", "INFO", "WARN", "DEBUG"};
+		for (int i=0; sb.length()<4<<20; i++) {
+			sb.append("{\"ts\":").append(1700000000000L+i*7).append(",\"level\":\"").append(level[random.nextInt(level.length)])
+				.append("\",\"msg\":\"request served\",\"path\":\"/api/v1/items/").append(random.nextInt(100000))
+				.append("\",\"status\":200,\"ms\":").append(random.nextInt(250)).append("}\n");
+		}
+		text = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+		pair = new LoopbackPair(new MultiplexerConfig());
+		StreamChannel[] stream = pair.stream(0, 1<<20, deflate);
+		os = stream[0].getOutputStream();
+		MemoryPipe.drain(stream[1], WRITE);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pair.close();
+	}
+
+	// one write per 64 KiB, the way a buffered log appender would hand them over
+	@Benchmark
+	public void write(Wire wire) throws IOException {
+		if (off+WRITE>text.length) off = 0;
+		os.write(text, off, WRITE);
+		off += WRITE;
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// small messages per millisecond over loopback TCP, each benchmark thread writing on a StreamChannel of its own, for each FlushPolicy
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class FlushPolicyBenchmark {
+
+	// none writes every frame itself, the others hand them to a writer thread that batches them
+	@Param({"none", "immediate", "bytes", "delay"})
+	public String flush;
+
+	@Param({"32", "1024"})
+	public int message;
+
+	private LoopbackPair pair;
+	private StreamChannel[] near;
+	private final AtomicInteger next = new AtomicInteger();
+
+	@State(Scope.Thread)
+	public static class Writer {
+		OutputStream os;
+		byte[] b;
+
+		@Setup
+		public void setup(FlushPolicyBenchmark benchmark) {
+			os = benchmark.near[benchmark.next.getAndIncrement()].getOutputStream();
+			b = new byte[benchmark.message];
+		}
+	}
+
+	static FlushPolicy flushPolicy(String name) {
+		if (name.equals("none")) return null;
+		if (name.equals("immediate")) return FlushPolicy.immediate();
+		if (name.equals("bytes")) return FlushPolicy.bytes(16384);
+		if (name.equals("delay")) return FlushPolicy.delay(200);
+		throw new IllegalArgumentException(name);
+	}
+
+	@Setup
+	public void setup(BenchmarkParams params) throws IOException {
+		pair = new LoopbackPair(new MultiplexerConfig().setFlushPolicy(flushPolicy(flush)));
+		near = new StreamChannel[params.getThreads()];
+		for (int i=0; i<near.length; i++) {
+			StreamChannel[] stream = pair.stream(i, 1<<20, false);
+			near[i] = stream[0];
+			MemoryPipe.drain(stream[1], 1<<16);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pair.close();
+	}
+
+	@Benchmark
+	public void write(Writer writer) throws IOException {
+		writer.os.write(writer.b, 0, writer.b.length);
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the Demultiplexer reading a recorded burst of frames for one established channel, the application draining them after it
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecodeBenchmark {
+
+	static final int FRAMES = 64;
+	static final int WINDOW = 1<<23;
+
+	@Param({"CRC32", "CRC32C", "BATCH", "NONE"})
+	public FrameIntegrity integrity;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	@Param({"16", "1024", "65535"})
+	public int payload;
+
+	@Param({"false", "true"})
+	public boolean messageMode;
+
+	private ScriptedTransport transport;
+	private Multiplexer home;
+	private InputStream stream;
+	private DatagramPacketChannel datagram;
+	private byte[] b;
+	private DatagramPacket packet;
+
+	@Setup
+	public void setup() throws IOException {
+		MultiplexerConfig config = new MultiplexerConfig().setFrameIntegrity(integrity).setCompactHeaders(compact);
+		FrameCodec codec = new FrameCodec(integrity, Multiplexer.MAX_PAYLOAD_SIZE, compact);
+		Checksum running = codec.newChecksum();
+
+		// the peer agrees on the format and opens channel 0
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write(ScriptedTransport.greeting(config));
+		frame(os, codec, running, Multiplexer.FLAG_SYN|Multiplexer.FLAG_CLI|(messageMode?Multiplexer.FLAG_MSG:0), WINDOW, null);
+		transport = new ScriptedTransport();
+		transport.play(os.toByteArray());
+		home = new Multiplexer(transport, config, false, 0);
+		home.readAvailable(Integer.MAX_VALUE);
+		if (messageMode) datagram = home.acceptDatagramPacketChannel(0, WINDOW);
+		else stream = home.acceptStreamChannel(0, WINDOW).getInputStream();
+
+		// one burst as a FrameWriter would flush it
+		b = new byte[payload];
+		new Random(0).nextBytes(b);
+		packet = new DatagramPacket(new byte[WINDOW], WINDOW);
+		os.reset();
+		for (int i=0; i<FRAMES; i++) frame(os, codec, null, Multiplexer.FLAG_NULL, 0, b);
+		if (integrity==FrameIntegrity.BATCH) {
+			byte[] burst = os.toByteArray();
+			ByteBuffer sum = codec.seal(running, new ByteBuffer[] {ByteBuffer.wrap(burst)}, 0, 1);
+			os.write(sum.array(), sum.arrayOffset()+sum.position(), sum.remaining());
+		}
+		transport.play(os.toByteArray());
+	}
+
+	// a BATCH peer seals each frame it sends outside a burst by itself
+	private static void frame(ByteArrayOutputStream os, FrameCodec codec, Checksum running, int flags, int credit, byte[] b) {
+		ByteBuffer[] frame = codec.encode(0, credit, flags, b, 0, b!=null?b.length:0, true);
+		ScriptedTransport.append(os, frame);
+		if (running!=null&&codec.integrity==FrameIntegrity.BATCH) ScriptedTransport.append(os, new ByteBuffer[] {codec.seal(running, frame, 0, 1)});
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		home.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int decode() throws IOException {
+		transport.replay();
+		home.readAvailable(Integer.MAX_VALUE);
+
+		int drained = 0;
+		if (messageMode) {
+			for (int i=0; i<FRAMES; i++) {
+				packet.setLength(WINDOW);
+				datagram.receive(packet);
+				drained += packet.getLength();
+			}
+		} else {
+			while (drained<FRAMES*payload) drained += stream.read(packet.getData(), 0, FRAMES*payload-drained);
+		}
+		return drained;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one frame per operation, from the payload to the bytes handed to the transport
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncodeBenchmark {
+
+	@Param({"CRC32", "CRC32C", "BATCH", "NONE"})
+	public FrameIntegrity integrity;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	@Param({"16", "1024", "65535"})
+	public int payload;
+
+	private FrameCodec codec;
+	private Multiplexer home;
+	private byte[] b;
+
+	@Setup
+	public void setup() throws IOException {
+		b = new byte[payload];
+		new Random(0).nextBytes(b);
+		codec = new FrameCodec(integrity, Multiplexer.MAX_PAYLOAD_SIZE, compact);
+
+		// nothing reads the frames, the scripted peer only agrees on the format
+		MultiplexerConfig config = new MultiplexerConfig().setFrameIntegrity(integrity).setCompactHeaders(compact);
+		ScriptedTransport transport = new ScriptedTransport();
+		transport.play(ScriptedTransport.greeting(config));
+		home = new Multiplexer(transport, config, false);
+		home.readAvailable(Integer.MAX_VALUE);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		home.close();
+	}
+
+	// the codec alone, the payload copied in the way the FrameWriter wants it
+	@Benchmark
+	public ByteBuffer[] encodeCopy() {
+		return codec.encode(1, 0, Multiplexer.FLAG_NULL, b, 0, b.length, true);
+	}
+
+	// the codec alone, the payload wrapped for a gathering write
+	@Benchmark
+	public ByteBuffer[] encodeGather() {
+		return codec.encode(1, 0, Multiplexer.FLAG_NULL, b, 0, b.length, false);
+	}
+
+	// what every Channel write goes through without a FrameWriter, batch checksums included
+	@Benchmark
+	public void writePacket() throws IOException {
+		home.writePacket(1, 0, b, 0, b.length, Multiplexer.FLAG_NULL);
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 64 KiB writes per millisecond on one StreamChannel over loopback TCP, the far side reading as fast as it can
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackThroughputBenchmark {
+
+	static final int WRITE = 1<<16;
+
+	@Param({"halfWindow", "immediate", "delayed", "adaptive"})
+	public String credit;
+
+	// from a window that holds less than a frame up to one that covers the whole bandwidth delay product
+	@Param({"4096", "65536", "4194304"})
+	public int window;
+
+	// the original frame size and jumbo frames
+	@Param({"65535", "1048576"})
+	public int maxPayload;
+
+	private LoopbackPair pair;
+	private OutputStream os;
+	private byte[] b;
+
+	static CreditPolicy creditPolicy(String name) {
+		if (name.equals("halfWindow")) return CreditPolicy.halfWindow();
+		if (name.equals("immediate")) return CreditPolicy.immediate();
+		if (name.equals("delayed")) return CreditPolicy.delayed(200);
+		if (name.equals("adaptive")) return CreditPolicy.adaptive();
+		throw new IllegalArgumentException(name);
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		MultiplexerConfig config = new MultiplexerConfig().setCreditPolicy(creditPolicy(credit)).setFrameIntegrity(FrameIntegrity.CRC32C).setMaxPayloadSize(maxPayload);
+		pair = new LoopbackPair(config);
+		StreamChannel[] stream = pair.stream(0, window, false);
+		os = stream[0].getOutputStream();
+		MemoryPipe.drain(stream[1], WRITE);
+		b = new byte[WRITE];
+		new Random(0).nextBytes(b);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pair.close();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		os.write(b, 0, b.length);
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+
+// two Multiplexers joined by a pair of ByteArrayCircularBuffers with a number of channels open between them
+class MemoryPipe implements Closeable {
+
+	static final int PIPE_SIZE = 1<<20;
+
+	final Multiplexer client;
+	final Multiplexer server;
+	final Channel[] near;
+	final Channel[] far;
+
+	MemoryPipe(final int channels, final int window, final boolean messageMode) throws IOException {
+		ByteArrayCircularBuffer up = new ByteArrayCircularBuffer(PIPE_SIZE);
+		ByteArrayCircularBuffer down = new ByteArrayCircularBuffer(PIPE_SIZE);
+		// listening from the start so a SYN that arrives before its accept is held for it rather than reset
+		int[] listening = new int[channels];
+		for (int i=0; i<channels; i++) listening[i] = i;
+		client = new Multiplexer(down.getInputStream(), up.getOutputStream());
+		server = new Multiplexer(up.getInputStream(), down.getOutputStream(), listening);
+		near = new Channel[channels];
+		far = new Channel[channels];
+
+		// connect waits for the answer to its SYN so the other side has to accept at the same time
+		final IOException[] failed = new IOException[1];
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i=0; i<channels; i++) {
+						if (messageMode) far[i] = server.acceptDatagramPacketChannel(i, window);
+						else far[i] = server.acceptStreamChannel(i, window);
+					}
+				} catch (IOException ioe) {
+					failed[0] = ioe;
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		for (int i=0; i<channels; i++) {
+			if (messageMode) near[i] = client.connectDatagramPacketChannel(i, window);
+			else near[i] = client.connectStreamChannel(i, window);
+		}
+		try {
+			acceptor.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		if (failed[0]!=null) throw failed[0];
+	}
+
+	// keeps reading whatever arrives on a channel until the pipe is closed
+	static Thread drain(final Channel ptr, final int messageSize) {
+		Thread drain = new Thread(new Runnable() {
+			public void run() {
+				try {
+					if (ptr instanceof DatagramPacketChannel) {
+						DatagramPacketChannel datagram = (DatagramPacketChannel) ptr;
+						byte[] b = new byte[Math.max(messageSize, datagram.getMinRecvLength())];
+						DatagramPacket p = new DatagramPacket(b, b.length);
+						while (true) {
+							p.setLength(b.length);
+							datagram.receive(p);
+						}
+					}
+					byte[] b = new byte[messageSize];
+					InputStream is = ((StreamChannel) ptr).getInputStream();
+					while (is.read(b, 0, b.length)>=0);
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		drain.setDaemon(true);
+		drain.start();
+		return drain;
+	}
+
+	@Override
+	public void close() throws IOException {
+		client.close();
+		server.close();
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a message to the far side of an in-memory pipe and back, the far side echoing everything it receives
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeLatencyBenchmark {
+
+	@Param({"false", "true"})
+	public boolean messageMode;
+
+	@Param({"65536", "1048576"})
+	public int window;
+
+	@Param({"64", "1024", "16384"})
+	public int message;
+
+	private MemoryPipe pipe;
+	private OutputStream os;
+	private DataInputStream is;
+	private DatagramPacket packet;
+
+	@Setup
+	public void setup() throws IOException {
+		pipe = new MemoryPipe(1, window, messageMode);
+		packet = new DatagramPacket(new byte[Math.max(message, Multiplexer.MAX_PAYLOAD_SIZE)], message);
+		if (!messageMode) {
+			os = ((StreamChannel) pipe.near[0]).getOutputStream();
+			is = new DataInputStream(((StreamChannel) pipe.near[0]).getInputStream());
+		}
+
+		final Channel echo = pipe.far[0];
+		Thread echoer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					byte[] b = new byte[Math.max(message, Multiplexer.MAX_PAYLOAD_SIZE)];
+					if (echo instanceof DatagramPacketChannel) {
+						DatagramPacketChannel datagram = (DatagramPacketChannel) echo;
+						DatagramPacket p = new DatagramPacket(b, b.length);
+						while (true) {
+							p.setLength(b.length);
+							datagram.receive(p);
+							datagram.send(p);
+						}
+					}
+					DataInputStream in = new DataInputStream(((StreamChannel) echo).getInputStream());
+					OutputStream out = ((StreamChannel) echo).getOutputStream();
+					while (true) {
+						in.readFully(b, 0, message);
+						out.write(b, 0, message);
+					}
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		echoer.setDaemon(true);
+		echoer.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pipe.close();
+	}
+
+	@Benchmark
+	public int roundTrip() throws IOException {
+		if (messageMode) {
+			DatagramPacketChannel datagram = (DatagramPacketChannel) pipe.near[0];
+			packet.setLength(message);
+			datagram.send(packet);
+			packet.setLength(packet.getData().length);
+			datagram.receive(packet);
+			return packet.getLength();
+		}
+		os.write(packet.getData(), 0, message);
+		is.readFully(packet.getData(), 0, message);
+		return message;
+	}
+
+}
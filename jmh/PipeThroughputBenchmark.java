@@ -0,0 +1,71 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// messages per millisecond written round robin across the channels of an in-memory pipe, a thread per channel reading them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeThroughputBenchmark {
+
+	@Param({"false", "true"})
+	public boolean messageMode;
+
+	@Param({"65536", "1048576"})
+	public int window;
+
+	@Param({"64", "1024", "16384"})
+	public int message;
+
+	@Param({"1", "4", "16"})
+	public int channels;
+
+	private MemoryPipe pipe;
+	private OutputStream[] streams;
+	private DatagramPacket packet;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		pipe = new MemoryPipe(channels, window, messageMode);
+		streams = new OutputStream[channels];
+		for (int i=0; i<channels; i++) {
+			if (!messageMode) streams[i] = ((StreamChannel) pipe.near[i]).getOutputStream();
+			MemoryPipe.drain(pipe.far[i], message);
+		}
+		packet = new DatagramPacket(new byte[message], message);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pipe.close();
+	}
+
+	@Benchmark
+	public void send() throws IOException {
+		int channel = next;
+		next = (next+1)%channels;
+		if (messageMode) ((DatagramPacketChannel) pipe.near[channel]).send(packet);
+		else streams[channel].write(packet.getData(), 0, message);
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a burst of short lived channels over loopback TCP with a large advertised window, each carrying one small request
+// with pooled and private windows, run with -prof gc for what each burst allocates
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PooledWindowBenchmark {
+
+	static final int SERVICE = 0;
+	static final int BURST = 64;
+
+	@Param({"false", "true"})
+	public boolean pooled;
+
+	@Param({"65536", "1048576"})
+	public int window;
+
+	private LoopbackPair pair;
+	private final byte[] request = new byte[1024];
+
+	@Setup
+	public void setup() throws IOException {
+		pair = new LoopbackPair(new MultiplexerConfig().setPooledWindows(pooled));
+		pair.server.listen(SERVICE, BURST);
+		final Multiplexer server = pair.server;
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					byte[] b = new byte[request.length];
+					while (true) {
+						StreamChannel stream = server.acceptStreamChannel(SERVICE, window);
+						new DataInputStream(stream.getInputStream()).readFully(b);
+						stream.close();
+					}
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pair.close();
+	}
+
+	@Benchmark
+	public void burst() throws IOException {
+		List<CompletableFuture<StreamChannel>> connects = new ArrayList<CompletableFuture<StreamChannel>>(BURST);
+		for (int i=0; i<BURST; i++) connects.add(pair.client.connectStreamChannelAsync(Multiplexer.EPHEMERAL_CHANNEL, SERVICE, window, Multiplexer.DEFAULT_CONNECTION_TIMEOUT, false));
+		for (CompletableFuture<StreamChannel> connect: connects) LoopbackPair.await(connect).getOutputStream().write(request);
+		// the server closes each one once it has read the request
+		for (CompletableFuture<StreamChannel> connect: connects) {
+			try {
+				while (LoopbackPair.await(connect).getInputStream().read()>=0);
+			} catch (IOException ioe) {
+				// closed when the peer closed
+			}
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a small datagram to the far side of a loopback connection and back while a bulk StreamChannel saturates the same connection
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityBenchmark {
+
+	// direct writes, a writer thread with every channel equal, a writer thread with the control channel ahead of the bulk one
+	@Param({"direct", "writer", "prioritized"})
+	public String mode;
+
+	private LoopbackPair pair;
+	private DatagramPacketChannel control;
+	private DatagramPacket packet;
+
+	@Setup
+	public void setup() throws IOException {
+		MultiplexerConfig config = new MultiplexerConfig();
+		if (!mode.equals("direct")) config.setFlushPolicy(FlushPolicy.immediate());
+		// small kernel buffers so the backlog builds up where the multiplexer can still reorder it
+		SocketChannel[] socket = LoopbackPair.sockets();
+		socket[0].setOption(StandardSocketOptions.SO_SNDBUF, 64<<10);
+		socket[1].setOption(StandardSocketOptions.SO_RCVBUF, 64<<10);
+		pair = new LoopbackPair(socket, config, config);
+
+		StreamChannel[] bulk = pair.stream(0, 4<<20, false);
+		final OutputStream os = bulk[0].getOutputStream();
+		MemoryPipe.drain(bulk[1], 1<<20);
+		Thread flood = new Thread(new Runnable() {
+			public void run() {
+				try {
+					byte[] b = new byte[1<<20];
+					while (true) os.write(b, 0, b.length);
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		flood.setDaemon(true);
+		flood.start();
+
+		DatagramPacketChannel[] datagram = pair.datagram(1, 1024);
+		control = datagram[0];
+		final DatagramPacketChannel echo = datagram[1];
+		if (mode.equals("prioritized")) {
+			control.setPriority(1, 1);
+			echo.setPriority(1, 1);
+		}
+		Thread echoer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					DatagramPacket p = new DatagramPacket(new byte[1024], 1024);
+					while (true) {
+						p.setLength(1024);
+						echo.receive(p);
+						echo.send(p);
+					}
+				} catch (IOException ioe) {
+					// closed
+				}
+			}
+		});
+		echoer.setDaemon(true);
+		echoer.start();
+		packet = new DatagramPacket(new byte[1024], 1024);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pair.close();
+	}
+
+	@Benchmark
+	public int roundTrip() throws IOException {
+		packet.setLength(64);
+		control.send(packet);
+		packet.setLength(1024);
+		control.receive(packet);
+		return packet.getLength();
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+// a peer that never answers: reads replay a recorded byte stream, writes are dropped or recorded
+class ScriptedTransport extends Transport {
+
+	private ByteBuffer script = ByteBuffer.allocate(0);
+	private ByteArrayOutputStream recording = null;
+	long written = 0;
+
+	// everything read from now on, once it has been read the transport acts like a non-blocking one with nothing ready
+	void play(byte[] script) {
+		this.script = ByteBuffer.wrap(script);
+	}
+
+	// the same bytes again, without copying them
+	void replay() {
+		script.rewind();
+	}
+
+	void record() {
+		recording = new ByteArrayOutputStream();
+	}
+
+	byte[] stopRecording() {
+		byte[] recorded = recording.toByteArray();
+		recording = null;
+		return recorded;
+	}
+
+	@Override
+	int read(ByteBuffer dst) {
+		int read = Math.min(script.remaining(), dst.remaining());
+		if (read==0) return 0;
+		ByteBuffer src = script.duplicate();
+		src.limit(src.position()+read);
+		dst.put(src);
+		script.position(script.position()+read);
+		return read;
+	}
+
+	@Override
+	void write(ByteBuffer[] srcs, int offset, int length) {
+		for (int i=offset; i<offset+length; i++) {
+			ByteBuffer src = srcs[i];
+			written += src.remaining();
+			if (recording!=null) recording.write(src.array(), src.arrayOffset()+src.position(), src.remaining());
+			src.position(src.limit());
+		}
+	}
+
+	@Override
+	ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocate(capacity);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	// the frames a peer would send to agree on the format of the given config, encoded the way that peer would encode them
+	static byte[] greeting(MultiplexerConfig config) {
+		byte[] hello = FrameCodec.hello(config.getFrameIntegrity(), config.getMaxPayloadSize(), config.isCompactHeaders());
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		append(os, FrameCodec.LEGACY.encode(0, 0, Multiplexer.FLAG_HELLO, hello, 0, hello.length, true));
+		append(os, FrameCodec.LEGACY.encode(0, 0, Multiplexer.FLAG_FORMAT, null, 0, 0, true));
+		return os.toByteArray();
+	}
+
+	static void append(ByteArrayOutputStream os, ByteBuffer[] frame) {
+		for (ByteBuffer part: frame) os.write(part.array(), part.arrayOffset()+part.position(), part.remaining());
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// full frames per millisecond over an in-memory pipe, each benchmark thread writing on a StreamChannel of its own, -t sets how many
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class WriterScalingBenchmark {
+
+	private MemoryPipe pipe;
+	private final AtomicInteger next = new AtomicInteger();
+
+	@State(Scope.Thread)
+	public static class Writer {
+		OutputStream os;
+		byte[] b;
+
+		@Setup
+		public void setup(WriterScalingBenchmark benchmark) {
+			int channel = benchmark.next.getAndIncrement();
+			os = ((StreamChannel) benchmark.pipe.near[channel]).getOutputStream();
+			b = new byte[Multiplexer.MAX_PAYLOAD_SIZE];
+			new Random(channel).nextBytes(b);
+		}
+	}
+
+	@Setup
+	public void setup(BenchmarkParams params) throws IOException {
+		pipe = new MemoryPipe(params.getThreads(), 1<<20, false);
+		for (int i=0; i<params.getThreads(); i++) MemoryPipe.drain(pipe.far[i], 1<<16);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pipe.close();
+	}
+
+	@Benchmark
+	public void write(Writer writer) throws IOException {
+		writer.os.write(writer.b, 0, writer.b.length);
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class DatagramPacketChannelTest {
+
+	// datagrams from a SubmissionPublisher through the channel to a subscriber that stalls halfway, the sender has to stall with it
+	@Test
+	void publisherStallsWithItsSubscriber() throws Exception {
+		final int packets = 2000;
+		final int size = 1024;
+		final int window = 1<<16;
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			DatagramPacketChannel[] datagram = pair.datagram(0, window);
+			final AtomicLong received = new AtomicLong();
+			final AtomicBoolean inOrder = new AtomicBoolean(true);
+			final CountDownLatch stalled = new CountDownLatch(1);
+			final Flow.Subscription[] held = new Flow.Subscription[1];
+			final Throwable[] error = new Throwable[1];
+			datagram[1].publisher().subscribe(new Flow.Subscriber<DatagramPacket>() {
+				public void onSubscribe(Flow.Subscription subscription) {
+					held[0] = subscription;
+					subscription.request(packets/2);
+				}
+				public void onNext(DatagramPacket p) {
+					long n = received.getAndIncrement();
+					if (p.getLength()!=size||ByteBuffer.wrap(p.getData()).getInt()!=n) inOrder.set(false);
+					if (n+1==packets/2) stalled.countDown();
+				}
+				public void onError(Throwable failure) {
+					error[0] = failure;
+				}
+				public void onComplete() {
+				}
+			});
+
+			final SubmissionPublisher<DatagramPacket> upstream = new SubmissionPublisher<DatagramPacket>();
+			upstream.subscribe(datagram[0].subscriber());
+			Thread producer = new Thread(new Runnable() {
+				public void run() {
+					for (int i=0; i<packets; i++) {
+						byte[] b = new byte[size];
+						ByteBuffer.wrap(b).putInt(i);
+						upstream.submit(new DatagramPacket(b, size));
+					}
+				}
+			});
+			producer.setDaemon(true);
+			producer.start();
+
+			assertTrue(stalled.await(30, TimeUnit.SECONDS));
+			Thread.sleep(500);
+			assertEquals(packets/2, received.get());
+			// what was not requested can only be in the receiver's window, everything else waits on the sending side
+			long sent = datagram[0].getMetrics().getBytesSent()/size;
+			assertTrue(sent<=packets/2+window/size, sent+" packets sent to a subscriber that asked for "+packets/2);
+
+			held[0].request(Long.MAX_VALUE);
+			while (received.get()<packets) Thread.sleep(1);
+			assertTrue(inOrder.get());
+			assertNull(error[0]);
+			upstream.close();
+		} finally {
+			pair.close();
+		}
+	}
+
+	// the sender is done and closed while most of what it sent still waits in the receiver's window
+	@Test
+	void closedSenderStillDeliversEverything() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			DatagramPacketChannel[] datagram = pair.datagram(0, 1<<16);
+			final AtomicLong received = new AtomicLong();
+			final CountDownLatch first = new CountDownLatch(10);
+			final CountDownLatch ended = new CountDownLatch(1);
+			final Flow.Subscription[] held = new Flow.Subscription[1];
+			final Throwable[] error = new Throwable[1];
+			datagram[1].publisher().subscribe(new Flow.Subscriber<DatagramPacket>() {
+				public void onSubscribe(Flow.Subscription subscription) {
+					held[0] = subscription;
+					subscription.request(10);
+				}
+				public void onNext(DatagramPacket p) {
+					received.incrementAndGet();
+					first.countDown();
+				}
+				public void onError(Throwable failure) {
+					error[0] = failure;
+					ended.countDown();
+				}
+				public void onComplete() {
+					ended.countDown();
+				}
+			});
+			for (int i=0; i<100; i++) datagram[0].send(new DatagramPacket(new byte[64], 64));
+			datagram[0].close();
+			assertTrue(first.await(30, TimeUnit.SECONDS));
+			while (!datagram[1].isClosed()) Thread.sleep(1);
+
+			held[0].request(1000);
+			assertTrue(ended.await(30, TimeUnit.SECONDS));
+			assertNull(error[0]);
+			assertEquals(100, received.get());
+		} finally {
+			pair.close();
+		}
+	}
+
+}
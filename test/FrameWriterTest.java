@@ -0,0 +1,87 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class FrameWriterTest {
+
+	static final int WRITERS = 4;
+
+	// keeps the last sequence number seen on each channel, every frame is a channel and a sequence number
+	static class Recorder extends Transport {
+		final long[] last = new long[WRITERS];
+		long written = 0;
+		long outOfOrder = 0;
+
+		int read(ByteBuffer dst) {
+			return -1;
+		}
+
+		synchronized void write(ByteBuffer[] srcs, int offset, int length) {
+			for (int i=offset; i<offset+length; i++) {
+				ByteBuffer src = srcs[i];
+				int channel = src.getInt(src.position());
+				long sequence = src.getLong(src.position()+4);
+				if (sequence!=last[channel]+1) outOfOrder++;
+				last[channel] = sequence;
+				written++;
+				src.position(src.limit());
+			}
+		}
+
+		ByteBuffer allocate(int capacity) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		public void close() {
+		}
+	}
+
+	// writers racing with close, every frame write accepted has to reach the transport in the order of its channel
+	@Test
+	void noAcceptedFrameIsLostOnClose() throws Exception {
+		for (int round=0; round<100; round++) {
+			Recorder transport = new Recorder();
+			final FrameWriter writer = new FrameWriter(transport, FlushPolicy.immediate(), false, new Runnable() {
+				public void run() {
+				}
+			});
+			final AtomicLong accepted = new AtomicLong();
+			Thread[] thread = new Thread[WRITERS];
+			for (int i=0; i<WRITERS; i++) {
+				final int channel = i;
+				thread[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (long sequence=1; ; sequence++) {
+								ByteBuffer frame = ByteBuffer.allocate(12);
+								frame.putInt(0, channel).putLong(4, sequence);
+								writer.write(channel, frame);
+								accepted.incrementAndGet();
+							}
+						} catch (IOException ioe) {
+							// closed
+						}
+					}
+				});
+				thread[i].start();
+			}
+			Thread.sleep(2);
+			writer.close(true);
+			for (Thread t: thread) t.join();
+
+			synchronized (transport) {
+				assertEquals(accepted.get(), transport.written, "round "+round);
+				assertEquals(0, transport.outOfOrder, "round "+round);
+			}
+		}
+	}
+
+}
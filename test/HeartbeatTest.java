@@ -0,0 +1,121 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class HeartbeatTest {
+
+	static final long HEARTBEAT = 50;
+	static final int MISSED = 3;
+	// MISSED heartbeats and then some, a scheduler blocked by one connection would miss it by seconds
+	static final long LIMIT = 40*HEARTBEAT;
+
+	// the client's socket and the server's socket, joined by a relay that stops reading once cut is set without closing anything
+	static SocketChannel[] relay(final AtomicBoolean cut) throws IOException {
+		SocketChannel[] near = LoopbackPair.sockets();
+		SocketChannel[] far = LoopbackPair.sockets();
+		for (int d=0; d<2; d++) {
+			final SocketChannel from = d==0?near[1]:far[0];
+			final SocketChannel to = d==0?far[0]:near[1];
+			Thread forward = new Thread(new Runnable() {
+				public void run() {
+					try {
+						ByteBuffer b = ByteBuffer.allocate(1<<16);
+						while (!cut.get()&&from.read(b)>=0) {
+							b.flip();
+							if (cut.get()) break;
+							while (b.hasRemaining()) to.write(b);
+							b.clear();
+						}
+					} catch (IOException ioe) {
+						// closed
+					}
+				}
+			});
+			forward.setDaemon(true);
+			forward.start();
+		}
+		return new SocketChannel[] {near[0], far[1]};
+	}
+
+	@Test
+	void roundTripIsMeasured() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setHeartbeat(HEARTBEAT, MISSED));
+		try {
+			long deadline = System.nanoTime()+10_000_000_000L;
+			while ((pair.client.getRttMicros()==0||pair.server.getRttMicros()==0)&&System.nanoTime()<deadline) Thread.sleep(HEARTBEAT);
+			assertTrue(pair.client.getRttMicros()>0);
+			assertTrue(pair.server.getRttMicros()>0);
+			assertFalse(pair.client.isClosed());
+			assertFalse(pair.server.isClosed());
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void silentPeerIsClosed() throws Exception {
+		AtomicBoolean cut = new AtomicBoolean();
+		LoopbackPair pair = new LoopbackPair(relay(cut), new MultiplexerConfig().setHeartbeat(HEARTBEAT, MISSED), new MultiplexerConfig());
+		try {
+			Thread.sleep(5*HEARTBEAT);
+			assertFalse(pair.client.isClosed());
+
+			cut.set(true);
+			long beg = System.nanoTime();
+			while (!pair.client.isClosed()) Thread.sleep(5);
+			long took = (System.nanoTime()-beg)/1000000;
+			assertTrue(took<LIMIT, "silent peer declared dead after "+took+" ms");
+		} finally {
+			pair.close();
+		}
+	}
+
+	// the peer stopped reading with a writer blocked on the full socket, the heartbeat still has to find out
+	@Test
+	void peerBehindFullSocketIsClosed() throws Exception {
+		AtomicBoolean cut = new AtomicBoolean();
+		MultiplexerConfig config = new MultiplexerConfig().setHeartbeat(HEARTBEAT, MISSED);
+		LoopbackPair pair = new LoopbackPair(relay(cut), config, config);
+		// an unrelated pair whose heartbeats share the same scheduler
+		LoopbackPair other = new LoopbackPair(config);
+		try {
+			final StreamChannel stream = pair.stream(0, Multiplexer.MAX_BUFFER_SIZE, false)[0];
+			Thread.sleep(5*HEARTBEAT);
+
+			cut.set(true);
+			long beg = System.nanoTime();
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						byte[] b = new byte[1<<20];
+						while (true) stream.getOutputStream().write(b);
+					} catch (IOException ioe) {
+						// closed
+					}
+				}
+			});
+			writer.setDaemon(true);
+			writer.start();
+			while (!pair.client.isClosed()) Thread.sleep(5);
+			long took = (System.nanoTime()-beg)/1000000;
+			assertTrue(took<LIMIT, "peer behind a full socket declared dead after "+took+" ms");
+
+			assertTrue(other.client.getRttMicros()>0);
+			assertFalse(other.client.isClosed());
+		} finally {
+			pair.close();
+			other.close();
+		}
+	}
+
+}
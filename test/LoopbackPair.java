@@ -0,0 +1,88 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// two Multiplexers joined by a loopback TCP connection, shared by the tests and the benchmarks
+class LoopbackPair implements Closeable {
+
+	final Multiplexer client;
+	final Multiplexer server;
+
+	LoopbackPair(MultiplexerConfig config, int... listening) throws IOException {
+		this(config, config, listening);
+	}
+
+	LoopbackPair(MultiplexerConfig clientConfig, MultiplexerConfig serverConfig, int... listening) throws IOException {
+		this(sockets(), clientConfig, serverConfig, listening);
+	}
+
+	// on sockets someone else connected, the client takes the first
+	LoopbackPair(SocketChannel[] socket, MultiplexerConfig clientConfig, MultiplexerConfig serverConfig, int... listening) throws IOException {
+		this(new Multiplexer(socket[0], clientConfig, new int[0]), new Multiplexer(socket[1], serverConfig, listening));
+	}
+
+	// on Multiplexers someone else built, registered with an event loop or joined in memory for instance
+	LoopbackPair(Multiplexer client, Multiplexer server) {
+		this.client = client;
+		this.server = server;
+	}
+
+	// both ends of one loopback connection, for whoever builds the Multiplexers on them
+	static SocketChannel[] sockets() throws IOException {
+		ServerSocketChannel listener = ServerSocketChannel.open();
+		try {
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			SocketChannel near = SocketChannel.open(listener.getLocalAddress());
+			SocketChannel far = listener.accept();
+			// small frames would otherwise wait on Nagle and delayed acks
+			near.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			far.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			return new SocketChannel[] {near, far};
+		} finally {
+			listener.close();
+		}
+	}
+
+	// the client's end and the server's end of a StreamChannel on channel
+	StreamChannel[] stream(int channel, int window, boolean deflate) throws IOException {
+		// connect waits for the answer to its SYN so the accept has to be under way first
+		CompletableFuture<StreamChannel> accepted = server.acceptStreamChannelAsync(channel, window, Multiplexer.DEFAULT_CONNECTION_TIMEOUT, false, deflate);
+		StreamChannel near = client.connectStreamChannel(channel, window, Multiplexer.DEFAULT_CONNECTION_TIMEOUT, deflate);
+		return new StreamChannel[] {near, await(accepted)};
+	}
+
+	// the client's end and the server's end of a DatagramPacketChannel on channel
+	DatagramPacketChannel[] datagram(int channel, int window) throws IOException {
+		CompletableFuture<DatagramPacketChannel> accepted = server.acceptDatagramPacketChannelAsync(channel, window);
+		DatagramPacketChannel near = client.connectDatagramPacketChannel(channel, window, Multiplexer.DEFAULT_CONNECTION_TIMEOUT);
+		return new DatagramPacketChannel[] {near, await(accepted)};
+	}
+
+	static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+			throw new IOException(ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		client.close();
+		server.close();
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// the same bytes have to come out the other end whatever the connection is configured with
+@Timeout(60)
+class MultiplexerConfigTest {
+
+	static Stream<FlushPolicy> flushPolicies() {
+		return Stream.of(null, FlushPolicy.immediate(), FlushPolicy.bytes(16384), FlushPolicy.delay(200), FlushPolicy.bytesOrDelay(16384, 200));
+	}
+
+	static Stream<Arguments> creditPolicies() {
+		Stream.Builder<Arguments> args = Stream.builder();
+		for (int window: new int[] {27, 4096, 1<<16}) {
+			args.add(Arguments.of(CreditPolicy.halfWindow(), window));
+			args.add(Arguments.of(CreditPolicy.immediate(), window));
+			args.add(Arguments.of(CreditPolicy.delayed(200), window));
+			args.add(Arguments.of(CreditPolicy.adaptive(), window));
+		}
+		return args.build();
+	}
+
+	@ParameterizedTest
+	@MethodSource("flushPolicies")
+	void roundTripForEveryFlushPolicy(FlushPolicy policy) throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setFlushPolicy(policy));
+		try {
+			StreamChannel[] stream = pair.stream(0, StreamChannelTest.WINDOW, false);
+			// small writes are what a writer thread would batch
+			byte[] data = StreamChannelTest.data(1<<20, false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 32));
+		} finally {
+			pair.close();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("creditPolicies")
+	void roundTripForEveryCreditPolicy(CreditPolicy policy, int window) throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setCreditPolicy(policy));
+		try {
+			StreamChannel[] stream = pair.stream(0, window, false);
+			byte[] data = StreamChannelTest.data(Math.min(window*2000, 1<<20), false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 1<<16));
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void jumboFrames() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setFrameIntegrity(FrameIntegrity.CRC32C).setMaxPayloadSize(1<<20));
+		try {
+			StreamChannel[] stream = pair.stream(0, 8<<20, false);
+			assertEquals(1<<20, pair.client.getMaxPayloadSize());
+			assertEquals(1<<20, pair.server.getMaxPayloadSize());
+			byte[] data = StreamChannelTest.data(32<<20, false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 4<<20));
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void compactHeadersTakeFewerBytes() throws Exception {
+		MultiplexerConfig[] config = {
+				new MultiplexerConfig(),
+				new MultiplexerConfig().setCompactHeaders(true),
+				new MultiplexerConfig().setCompactHeaders(true).setFrameIntegrity(FrameIntegrity.NONE),
+		};
+		long[] wire = new long[config.length];
+		for (int c=0; c<config.length; c++) {
+			LoopbackPair pair = new LoopbackPair(config[c]);
+			try {
+				DatagramPacketChannel[] datagram = pair.datagram(0, 1<<16);
+				Random random = new Random(0);
+				byte[] b = new byte[40];
+				DatagramPacket p = new DatagramPacket(new byte[1<<16], 1<<16);
+				long before = pair.client.getMetrics().getBytesSent();
+				for (int i=0; i<2000; i++) {
+					random.nextBytes(b);
+					int len = 10+random.nextInt(31);
+					datagram[0].send(new DatagramPacket(b, len));
+					p.setLength(1<<16);
+					datagram[1].receive(p);
+					assertArrayEquals(Arrays.copyOf(b, len), Arrays.copyOf(p.getData(), p.getLength()));
+				}
+				wire[c] = pair.client.getMetrics().getBytesSent()-before;
+			} finally {
+				pair.close();
+			}
+		}
+		assertTrue(wire[1]<wire[0], "compact headers took "+wire[1]+" bytes, fixed ones "+wire[0]);
+		assertTrue(wire[2]<wire[1], "without a checksum took "+wire[2]+" bytes, with one "+wire[1]);
+	}
+
+	// channels whose windows are left full while one more streams through
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void directWindows(boolean direct) throws Exception {
+		final int full = 8;
+		final int window = 1<<16;
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setDirectWindows(direct));
+		try {
+			StreamChannel[][] stream = new StreamChannel[full+1][];
+			for (int i=0; i<=full; i++) stream[i] = pair.stream(i, window, false);
+			byte[] b = StreamChannelTest.data(window, false);
+			for (int i=0; i<full; i++) stream[i][0].getOutputStream().write(b);
+
+			byte[] data = StreamChannelTest.data(8<<20, false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[full][0], stream[full][1], data, 1<<16));
+			// nothing of the others was touched while the last one was read
+			for (int i=0; i<full; i++) {
+				byte[] got = new byte[window];
+				new DataInputStream(stream[i][1].getInputStream()).readFully(got);
+				assertArrayEquals(b, got);
+			}
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void poolIsEmptyAfterTheLastClose() throws Exception {
+		final int burst = 32;
+		final byte[] request = StreamChannelTest.data(1024, false);
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setPooledWindows(true));
+		try {
+			// short lived channels with a large advertised window, each carrying one small request
+			for (int round=0; round<4; round++) {
+				StreamChannel[][] stream = new StreamChannel[burst][];
+				for (int i=0; i<burst; i++) {
+					stream[i] = pair.stream(i, 1<<20, false);
+					stream[i][0].getOutputStream().write(request);
+				}
+				for (int i=0; i<burst; i++) {
+					byte[] got = new byte[request.length];
+					new DataInputStream(stream[i][1].getInputStream()).readFully(got);
+					assertArrayEquals(request, got);
+					stream[i][1].close();
+				}
+			}
+			assertTrue(WindowPool.HEAP.getPooled()>0, "closed channels left nothing in the pool for the next ones");
+		} finally {
+			pair.close();
+		}
+		assertEquals(0, WindowPool.HEAP.getPooled());
+	}
+
+}
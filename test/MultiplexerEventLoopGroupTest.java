@@ -0,0 +1,127 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class MultiplexerEventLoopGroupTest {
+
+	static void write(OutputStream os, ByteBuffer[] frame) throws IOException {
+		for (ByteBuffer part: frame) os.write(part.array(), part.arrayOffset()+part.position(), part.remaining());
+		os.flush();
+	}
+
+	// many loopback connections served by one group instead of a reader thread each
+	@Test
+	void manyConnectionsOnOneGroup() throws Exception {
+		final int connections = 64;
+		MultiplexerEventLoopGroup group = new MultiplexerEventLoopGroup();
+		try {
+			LoopbackPair[] pair = new LoopbackPair[connections];
+			for (int i=0; i<connections; i++) {
+				SocketChannel[] socket = LoopbackPair.sockets();
+				pair[i] = new LoopbackPair(group.register(socket[0]), group.register(socket[1], 0));
+			}
+			byte[] b = new byte[64];
+			DatagramPacket p = new DatagramPacket(new byte[1024], 1024);
+			for (int i=0; i<connections; i++) {
+				DatagramPacketChannel[] datagram = pair[i].datagram(0, 1024);
+				Arrays.fill(b, (byte) i);
+				datagram[0].send(new DatagramPacket(b, b.length));
+				p.setLength(1024);
+				datagram[1].receive(p);
+				datagram[1].send(p);
+				p.setLength(1024);
+				datagram[0].receive(p);
+				assertArrayEquals(b, Arrays.copyOf(p.getData(), p.getLength()));
+			}
+			for (int i=0; i<connections; i++) pair[i].close();
+		} finally {
+			group.close();
+		}
+	}
+
+	// a peer that floods pings and never reads the pongs must not stall the other connections of its loop
+	@Test
+	void peerThatStopsReadingDoesNotStallTheLoop() throws Exception {
+		MultiplexerEventLoopGroup group = new MultiplexerEventLoopGroup(1);
+		try {
+			// a small receive buffer has to be set before connecting to take effect
+			ServerSocketChannel listener = ServerSocketChannel.open();
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Socket raw = new Socket();
+			raw.setReceiveBufferSize(4096);
+			raw.connect(listener.getLocalAddress());
+			group.register(listener.accept());
+			listener.close();
+			Thread flood = new Thread(new Runnable() {
+				public void run() {
+					try {
+						OutputStream os = raw.getOutputStream();
+						byte[] clock = new byte[8];
+						while (true) write(os, FrameCodec.LEGACY.encode(0, 0, Multiplexer.FLAG_PING, clock, 0, clock.length, true));
+					} catch (IOException ioe) {
+						// closed
+					}
+				}
+			});
+			flood.setDaemon(true);
+			flood.start();
+			Thread.sleep(2000);
+
+			SocketChannel[] socket = LoopbackPair.sockets();
+			LoopbackPair pair = new LoopbackPair(new Multiplexer(socket[0], new MultiplexerConfig(), new int[0]), group.register(socket[1]));
+			try {
+				StreamChannel[] stream = pair.stream(0, 4096, false);
+				byte[] data = StreamChannelTest.data(1<<16, false);
+				assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 1<<16));
+			} finally {
+				pair.close();
+			}
+		} finally {
+			group.close();
+		}
+	}
+
+	// an OCL for a channel that is only listening is answered with a reset, it closes nothing
+	@Test
+	void badFrameClosesNothingElse() throws Exception {
+		MultiplexerEventLoopGroup group = new MultiplexerEventLoopGroup(1);
+		try {
+			SocketChannel[] socket = LoopbackPair.sockets();
+			LoopbackPair healthy = new LoopbackPair(new Multiplexer(socket[0], new MultiplexerConfig(), new int[0]), group.register(socket[1]));
+			SocketChannel[] attacked = LoopbackPair.sockets();
+			Multiplexer victim = group.register(attacked[1], 5);
+			Thread.sleep(200);
+			write(attacked[0].socket().getOutputStream(), FrameCodec.LEGACY.encode(5, 0, Multiplexer.FLAG_OCL, null, 0, 0, true));
+			Thread.sleep(500);
+
+			assertFalse(victim.isClosed());
+			assertFalse(healthy.server.isClosed());
+			StreamChannel[] stream = healthy.stream(0, 4096, false);
+			byte[] data = StreamChannelTest.data(1<<16, false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 1<<16));
+			healthy.close();
+			victim.close();
+			assertTrue(victim.isClosed());
+		} finally {
+			group.close();
+		}
+	}
+
+}
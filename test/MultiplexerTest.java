@@ -0,0 +1,252 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class MultiplexerTest {
+
+	static final int SERVICE = 80;
+
+	// writes back whatever it reads until the channel closes
+	static void echo(final StreamChannel stream, final byte[] b) {
+		stream.readAsync(b, 0, b.length).thenAccept(new Consumer<Integer>() {
+			public void accept(Integer read) {
+				if (read<0) return;
+				stream.writeAsync(b, 0, read).thenRun(new Runnable() {
+					public void run() {
+						echo(stream, b);
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	void burstPastBacklogIsRefused() throws Exception {
+		final int backlog = 4;
+		final int burst = 10;
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			pair.server.listen(SERVICE, backlog);
+			// nobody accepts yet, so the backlog fills and everything beyond it is reset
+			List<CompletableFuture<StreamChannel>> connects = new ArrayList<CompletableFuture<StreamChannel>>();
+			for (int i=0; i<burst; i++) connects.add(pair.client.connectStreamChannelAsync(Multiplexer.EPHEMERAL_CHANNEL, SERVICE, 4096, 10000, false));
+			// an accept any earlier would make room for one more of the burst
+			while (pair.server.getMetrics().getRefusedConnections()<burst-backlog) Thread.sleep(1);
+			for (int i=0; i<backlog; i++) pair.server.acceptStreamChannel(SERVICE, 4096, 10000);
+
+			int established = 0, refused = 0;
+			for (CompletableFuture<StreamChannel> connect: connects) {
+				try {
+					connect.get(10, TimeUnit.SECONDS);
+					established++;
+				} catch (ExecutionException ee) {
+					assertInstanceOf(ChannelResetException.class, ee.getCause());
+					refused++;
+				}
+			}
+			assertEquals(backlog, established);
+			assertEquals(burst-backlog, refused);
+			assertEquals(burst-backlog, pair.server.getMetrics().getRefusedConnections());
+
+			// the service is still listening once its backlog has been taken
+			CompletableFuture<StreamChannel> accepted = pair.server.acceptStreamChannelAsync(SERVICE, 4096);
+			pair.client.connectStreamChannel(Multiplexer.EPHEMERAL_CHANNEL, SERVICE, 4096, 10000, false);
+			accepted.get(10, TimeUnit.SECONDS);
+		} finally {
+			pair.close();
+		}
+	}
+
+	// more connections to one service than the original 2 byte channel field can number
+	@Test
+	void fanInBeyondSixteenBitChannels() throws Exception {
+		final int connections = 256;
+		MultiplexerConfig clientConfig = new MultiplexerConfig().setCompactHeaders(true).setEphemeralChannels(Multiplexer.MAX_CHANNEL+1, Multiplexer.MAX_CONNECTION);
+		LoopbackPair pair = new LoopbackPair(clientConfig, new MultiplexerConfig().setCompactHeaders(true));
+		try {
+			pair.server.listen(SERVICE, connections);
+			List<StreamChannel> open = new ArrayList<StreamChannel>();
+			for (int i=0; i<connections; i++) {
+				pair.server.acceptStreamChannelAsync(SERVICE, 256).thenAccept(new Consumer<StreamChannel>() {
+					public void accept(StreamChannel stream) {
+						echo(stream, new byte[16]);
+					}
+				});
+				open.add(pair.client.connectStreamChannel(Multiplexer.EPHEMERAL_CHANNEL, SERVICE, 256, 10000, false));
+			}
+			byte[] message = new byte[16];
+			byte[] got = new byte[16];
+			for (int i=0; i<connections; i++) {
+				StreamChannel stream = open.get(i);
+				assertTrue(stream.getChannelID()>Multiplexer.MAX_CHANNEL, "channel "+stream.getChannelID());
+				Arrays.fill(message, (byte) i);
+				stream.getOutputStream().write(message);
+				new DataInputStream(stream.getInputStream()).readFully(got);
+				assertArrayEquals(message, got);
+			}
+			assertEquals(connections+1, pair.server.getMetrics().getBoundChannels());
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void acceptWithoutConnectTimesOut() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			CompletableFuture<StreamChannel> never = pair.server.acceptStreamChannelAsync(0, 4096, 200, false, false);
+			try {
+				never.get(10, TimeUnit.SECONDS);
+				fail("accepted without a connect");
+			} catch (ExecutionException ee) {
+				assertInstanceOf(ChannelTimeoutException.class, ee.getCause());
+			}
+		} finally {
+			pair.close();
+		}
+	}
+
+	// a connect to a channel that is never accepted must not hold up the channels next to it
+	@Test
+	void unansweredConnectDoesNotBlockOtherChannels() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig(), 0, 1);
+		try {
+			final Multiplexer client = pair.client;
+			Thread stuck = new Thread(new Runnable() {
+				public void run() {
+					try {
+						client.connectStreamChannel(0, 1024, Long.MAX_VALUE);
+					} catch (IOException ioe) {
+						// closed
+					}
+				}
+			});
+			stuck.setDaemon(true);
+			stuck.start();
+
+			DatagramPacketChannel[] datagram = pair.datagram(1, 1024);
+			DatagramPacket p = new DatagramPacket(new byte[1024], 1024);
+			for (int i=0; i<1000; i++) {
+				p.setLength(64);
+				datagram[0].send(p);
+				p.setLength(1024);
+				datagram[1].receive(p);
+				datagram[1].send(p);
+				p.setLength(1024);
+				datagram[0].receive(p);
+				assertEquals(64, p.getLength());
+			}
+			assertTrue(stuck.isAlive());
+		} finally {
+			pair.close();
+		}
+	}
+
+	// request/response round trips on many channels at once without a thread for any of them
+	@Test
+	void asyncRoundTrips() throws Exception {
+		final int channels = 64;
+		final int rounds = 100;
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			List<CompletableFuture<Void>> done = new ArrayList<CompletableFuture<Void>>();
+			for (int i=0; i<channels; i++) {
+				pair.server.acceptStreamChannelAsync(i, 4096).thenAccept(new Consumer<StreamChannel>() {
+					public void accept(StreamChannel stream) {
+						echo(stream, new byte[64]);
+					}
+				});
+				final CompletableFuture<Void> finished = new CompletableFuture<Void>();
+				done.add(finished);
+				final byte[] message = new byte[64];
+				Arrays.fill(message, (byte) i);
+				pair.client.connectStreamChannelAsync(i, 4096).whenComplete(new BiConsumer<StreamChannel, Throwable>() {
+					public void accept(StreamChannel stream, Throwable connectFailure) {
+						if (connectFailure!=null) finished.completeExceptionally(connectFailure);
+						else roundTrip(stream, message, new byte[message.length], 0, rounds, finished);
+					}
+				});
+			}
+			for (CompletableFuture<Void> finished: done) finished.get(30, TimeUnit.SECONDS);
+		} finally {
+			pair.close();
+		}
+	}
+
+	// sends message, reads its echo into got and compares them, rounds times
+	static void roundTrip(final StreamChannel stream, final byte[] message, final byte[] got, final int have, final int rounds, final CompletableFuture<Void> finished) {
+		if (rounds==0) {
+			finished.complete(null);
+			return;
+		}
+		BiConsumer<Integer, Throwable> echoed = new BiConsumer<Integer, Throwable>() {
+			public void accept(Integer read, Throwable failure) {
+				if (failure!=null) finished.completeExceptionally(failure);
+				else if (read<0) finished.completeExceptionally(new IOException("closed after "+have+" bytes"));
+				else if (have+read<got.length) roundTrip(stream, message, got, have+read, rounds, finished);
+				else if (!Arrays.equals(message, got)) finished.completeExceptionally(new AssertionError("echo differs"));
+				else roundTrip(stream, message, got, 0, rounds-1, finished);
+			}
+		};
+		if (have>0) {
+			stream.readAsync(got, have, got.length-have).whenComplete(echoed);
+			return;
+		}
+		Arrays.fill(got, (byte) ~message[0]);
+		stream.writeAsync(message, 0, message.length).whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void sent, Throwable failure) {
+				if (failure!=null) finished.completeExceptionally(failure);
+				else stream.readAsync(got, 0, got.length).whenComplete(echoed);
+			}
+		});
+	}
+
+	@Test
+	void metricsCountWhatWasSent() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig().setJmxName("metrics-test"), new MultiplexerConfig());
+		try {
+			StreamChannel[] stream = pair.stream(0, 1<<20, false);
+			byte[] data = StreamChannelTest.data(8<<20, false);
+			assertArrayEquals(data, StreamChannelTest.transfer(stream[0], stream[1], data, 1<<14));
+
+			assertEquals(data.length, stream[0].getMetrics().getBytesSent());
+			assertEquals(data.length, stream[1].getMetrics().getBytesReceived());
+			MultiplexerMetrics sent = pair.client.getMetrics();
+			assertTrue(sent.getBytesSent()>data.length, "frames without their headers");
+			assertTrue(sent.getFramesSent()>=data.length/Multiplexer.MAX_PAYLOAD_SIZE);
+
+			// a JMX client sees the same counters
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(Multiplexer.class.getPackage().getName()+":type=Multiplexer,name="+ObjectName.quote("metrics-test"));
+			assertEquals(sent.getBytesSent(), mbs.getAttribute(name, "BytesSent"));
+			assertEquals(sent.getFramesSent(), mbs.getAttribute(name, "FramesSent"));
+		} finally {
+			pair.close();
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+package com.github.ezekielnewren.net.multiplexer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@Timeout(60)
+class StreamChannelTest {
+
+	static final int WINDOW = 1<<16;
+
+	// random bytes, or JSON log lines that deflate the way real text does
+	static byte[] data(int length, boolean text) {
+		Random random = new Random(length);
+		if (!text) {
+			byte[] b = new byte[length];
+			random.nextBytes(b);
+			return b;
+		}
+		StringBuilder sb = new StringBuilder();
+		String[] level = {"INFO", "INFO", "INFO", "WARN", "DEBUG"};
+		for (int i=0; sb.length()<length; i++) {
+			sb.append("{\"ts\":").append(1700000000000L+i*7).append(",\"level\":\"").append(level[random.nextInt(level.length)])
+				.append("\",\"msg\":\"request served\",\"path\":\"/api/v1/items/").append(random.nextInt(100000))
+				.append("\",\"status\":200,\"ms\":").append(random.nextInt(250)).append("}\n");
+		}
+		return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), length);
+	}
+
+	// writes data on from in chunks and returns as much as was read on to
+	// a close from the peer also closes this end, so the reader stops at data.length rather than waiting for the end
+	static byte[] transfer(final StreamChannel from, StreamChannel to, final byte[] data, final int chunk) throws Exception {
+		final IOException[] failed = new IOException[1];
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					OutputStream os = from.getOutputStream();
+					for (int off=0; off<data.length; off+=chunk) os.write(data, off, Math.min(chunk, data.length-off));
+				} catch (IOException ioe) {
+					failed[0] = ioe;
+				}
+			}
+		});
+		writer.setDaemon(true);
+		writer.start();
+
+		byte[] received = new byte[data.length];
+		InputStream is = to.getInputStream();
+		int total = 0;
+		while (total<received.length) {
+			int read = is.read(received, total, Math.min(1<<16, received.length-total));
+			if (read<0) break;
+			total += read;
+		}
+		writer.join();
+		if (failed[0]!=null) throw failed[0];
+		return Arrays.copyOf(received, total);
+	}
+
+	// two Multiplexers joined by a pair of ByteArrayCircularBuffers
+	static LoopbackPair memoryPipe() throws IOException {
+		ByteArrayCircularBuffer up = new ByteArrayCircularBuffer(1<<20);
+		ByteArrayCircularBuffer down = new ByteArrayCircularBuffer(1<<20);
+		return new LoopbackPair(new Multiplexer(down.getInputStream(), up.getOutputStream()), new Multiplexer(up.getInputStream(), down.getOutputStream()));
+	}
+
+	@Test
+	void roundTripOverMemory() throws Exception {
+		LoopbackPair pipe = memoryPipe();
+		try {
+			StreamChannel[] stream = pipe.stream(0, WINDOW, false);
+			byte[] data = data(4<<20, false);
+			assertArrayEquals(data, transfer(stream[0], stream[1], data, 10000));
+		} finally {
+			pipe.close();
+		}
+	}
+
+	@Test
+	void roundTripOverLoopback() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			StreamChannel[] stream = pair.stream(0, WINDOW, false);
+			byte[] data = data(4<<20, false);
+			assertArrayEquals(data, transfer(stream[0], stream[1], data, 10000));
+		} finally {
+			pair.close();
+		}
+	}
+
+	@Test
+	void deflatedRoundTrip() throws Exception {
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig());
+		try {
+			StreamChannel[] stream = pair.stream(0, WINDOW, true);
+			assertTrue(stream[0].isDeflated());
+			assertTrue(stream[1].isDeflated());
+			byte[] text = data(4<<20, true);
+			assertArrayEquals(text, transfer(stream[0], stream[1], text, 1<<16));
+			// log lines shrink several times over, a broken deflater would send them as they are or larger
+			assertTrue(pair.client.getMetrics().getBytesSent()<text.length/2, "deflated text was not smaller on the wire");
+		} finally {
+			pair.close();
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void readAsyncRoundTrip(boolean deflate) throws Exception {
+		LoopbackPair pipe = memoryPipe();
+		try {
+			final StreamChannel[] stream = pipe.stream(0, 8192, deflate);
+			final byte[] data = data(4<<20, true);
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						OutputStream os = stream[0].getOutputStream();
+						for (int off=0; off<data.length; off+=100000) os.write(data, off, Math.min(100000, data.length-off));
+					} catch (IOException ioe) {
+						// the reader comes up short
+					}
+				}
+			});
+			writer.setDaemon(true);
+			writer.start();
+
+			// an odd length so reads end in the middle of frames and of inflated chunks
+			byte[] got = new byte[data.length];
+			int total = 0;
+			while (total<got.length) {
+				int read = stream[1].readAsync(got, total, Math.min(got.length-total, 7777)).get(10, TimeUnit.SECONDS);
+				if (read<0) break;
+				total += read;
+			}
+			assertEquals(data.length, total);
+			assertArrayEquals(data, got);
+		} finally {
+			pipe.close();
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void asyncAndBlockingWritesNeverInterleave(boolean deflate) throws Exception {
+		LoopbackPair pipe = memoryPipe();
+		try {
+			final StreamChannel[] stream = pipe.stream(0, 4096, deflate);
+			final int block = 1<<16;
+			final int blocks = 100;
+			Thread blocking = new Thread(new Runnable() {
+				public void run() {
+					try {
+						byte[] b = new byte[block];
+						Arrays.fill(b, (byte) 'B');
+						for (int i=0; i<blocks; i++) stream[0].getOutputStream().write(b);
+					} catch (IOException ioe) {
+						// the reader comes up short
+					}
+				}
+			});
+			blocking.setDaemon(true);
+			blocking.start();
+			final byte[] a = new byte[block];
+			Arrays.fill(a, (byte) 'A');
+			Thread async = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i=0; i<blocks; i++) stream[0].writeAsync(a, 0, block).get();
+					} catch (Exception e) {
+						// the reader comes up short
+					}
+				}
+			});
+			async.setDaemon(true);
+			async.start();
+
+			// each write is handed over whole, so every block read back is all one letter
+			DataInputStream is = new DataInputStream(stream[1].getInputStream());
+			byte[] got = new byte[block];
+			int as = 0, bs = 0;
+			for (int i=0; i<2*blocks; i++) {
+				is.readFully(got);
+				byte first = got[0];
+				for (byte x: got) assertEquals(first, x, "block "+i+" mixes two writes");
+				if (first=='A') as++;
+				else bs++;
+			}
+			assertEquals(blocks, as);
+			assertEquals(blocks, bs);
+		} finally {
+			pipe.close();
+		}
+	}
+
+	// one channel streaming while the others each have a thread blocked in read, none of which may return
+	@Test
+	void idleReadersStayBlocked() throws Exception {
+		final int idle = 16;
+		int[] listening = new int[idle+1];
+		for (int i=0; i<=idle; i++) listening[i] = i;
+		LoopbackPair pair = new LoopbackPair(new MultiplexerConfig(), listening);
+		try {
+			final AtomicLong returned = new AtomicLong();
+			for (int i=1; i<=idle; i++) {
+				final StreamChannel reader = pair.stream(i, 4096, false)[1];
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						try {
+							if (reader.getInputStream().read(new byte[1], 0, 1)>=0) returned.incrementAndGet();
+						} catch (IOException ioe) {
+							// closed
+						}
+					}
+				});
+				t.setDaemon(true);
+				t.start();
+			}
+
+			StreamChannel[] stream = pair.stream(0, 1<<20, false);
+			byte[] data = data(8<<20, false);
+			assertArrayEquals(data, transfer(stream[0], stream[1], data, 1<<10));
+			assertEquals(0, returned.get());
+		} finally {
+			pair.close();
+		}
+	}
+
+}